@@ -0,0 +1,83 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Token throughput of {@link SpanishAnalyzer2} over real <code>dc:description</code> texts.
+ * <p>
+ * The score is the time to analyze every description of the sample once,
+ * with and without the stem cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalysisBenchmark {
+
+  /** Number of records whose descriptions are analyzed. */
+  @Param({"2000"})
+  public int records;
+
+  /** Capacity of the stem cache, 0 for plain Snowball. */
+  @Param({"0", "16384"})
+  public int stemCache;
+
+  private List<String> descriptions;
+  private SpanishAnalyzer2 analyzer;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    descriptions = BenchmarkData.descriptions(BenchmarkData.records(records));
+    analyzer = new SpanishAnalyzer2(stemCache);
+  }
+
+  @Benchmark
+  public void analyzeDescriptions(Blackhole bh) throws IOException {
+    for (String description : descriptions) {
+      try (TokenStream ts = analyzer.tokenStream("descripcion", description)) {
+        CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+        ts.reset();
+        while (ts.incrementToken()) {
+          bh.consume(term.length());
+        }
+        ts.end();
+      }
+    }
+  }
+}
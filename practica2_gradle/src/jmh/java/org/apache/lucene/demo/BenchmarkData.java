@@ -0,0 +1,147 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Inputs of the benchmarks, read from the working directory of the project. */
+final class BenchmarkData {
+
+  /** Collection of Dublin Core records, one per file. */
+  static final File RECORDS = new File("recordsdc");
+  static final File QUERY_LINES = new File("consultas.txt");
+  static final File INFO_NEEDS = new File("necesidadesInformacion.xml");
+
+  /** A record file held in memory. */
+  static final class Record {
+    final String name;
+    final byte[] bytes;
+
+    Record(String name, byte[] bytes) {
+      this.name = name;
+      this.bytes = bytes;
+    }
+  }
+
+  /** Parsers with the default options of {@link IndexFiles}. */
+  private static final ThreadLocal<RecordParser> PARSERS =
+      ThreadLocal.withInitial(() -> new RecordParser(FieldStorage.ALL, false));
+
+  private BenchmarkData() {
+  }
+
+  /** Reads the first n record files, in name order, so every run sees the same sample. */
+  static List<Record> records(int n) throws IOException {
+    File[] files = RECORDS.listFiles();
+    if (files == null) {
+      throw new IOException("'" + RECORDS.getAbsolutePath() + "' is not a directory, run the benchmarks from the project directory");
+    }
+    Arrays.sort(files);
+    List<Record> records = new ArrayList<>();
+    for (int i = 0; i < files.length && records.size() < n; i++) {
+      if (files[i].isFile()) {
+        records.add(new Record(files[i].getName(), Files.readAllBytes(files[i].toPath())));
+      }
+    }
+    return records;
+  }
+
+  /** Extracts the fields of a record, as {@link IndexFiles} does for a file. */
+  static Document parse(Record record) {
+    Document doc = new Document();
+    IndexFiles.addPath(doc, record.name, FieldStorage.ALL);
+    doc.add(new StringField("key", record.name, Field.Store.NO));
+    try {
+      PARSERS.get().parse(new ByteArrayInputStream(record.bytes), doc);
+    } catch (XMLStreamException e) {
+      throw new IllegalStateException("cannot parse " + record.name, e);
+    }
+    return doc;
+  }
+
+  /** Returns the non-empty <code>dc:description</code> texts of the records. */
+  static List<String> descriptions(List<Record> records) {
+    List<String> descriptions = new ArrayList<>();
+    for (Record record : records) {
+      for (String description : parse(record).getValues("descripcion")) {
+        if (!description.isEmpty()) {
+          descriptions.add(description);
+        }
+      }
+    }
+    return descriptions;
+  }
+
+  /** Indexes the records in memory, with the analyzer, similarity and facets of {@link IndexFiles}. */
+  static Directory index(List<Record> records) {
+    Directory dir = new ByteBuffersDirectory();
+    IndexWriterConfig iwc = new IndexWriterConfig(new SpanishAnalyzer2());
+    iwc.setSimilarity(new ClassicSimilarity());
+    try (IndexWriter writer = new IndexWriter(dir, iwc)) {
+      for (Record record : records) {
+        writer.addDocument(FacetFields.build(parse(record)));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return dir;
+  }
+
+  /** Returns the non-empty lines of consultas.txt. */
+  static List<String> queryLines() throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (String line : Files.readAllLines(QUERY_LINES.toPath(), StandardCharsets.UTF_8)) {
+      if (!line.trim().isEmpty()) {
+        lines.add(line.trim());
+      }
+    }
+    return lines;
+  }
+
+  /** Returns the text of every information need of necesidadesInformacion.xml. */
+  static List<String> infoNeeds() throws Exception {
+    org.w3c.dom.Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(INFO_NEEDS);
+    NodeList needs = doc.getElementsByTagName("informationNeed");
+    List<String> texts = new ArrayList<>();
+    for (int i = 0; i < needs.getLength(); i++) {
+      texts.add(((Element) needs.item(i)).getElementsByTagName("text").item(0).getTextContent());
+    }
+    return texts;
+  }
+}
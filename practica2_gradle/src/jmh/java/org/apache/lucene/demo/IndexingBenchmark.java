@@ -0,0 +1,94 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Field extraction and indexing of a <code>recordsdc</code> sample.
+ * <p>
+ * The records are read into memory first, so the scores leave the disk out:
+ * <code>parse</code> measures the XML to {@link Document} step alone and
+ * <code>index</code> adds the facets, analysis and {@link IndexWriter#addDocument} into
+ * a fresh in-memory index, up to the final commit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexingBenchmark {
+
+  /** Number of records parsed or indexed per operation. */
+  @Param({"2000"})
+  public int records;
+
+  /** Values of the low-cardinality fields whose tokens are cached, 0 for none, see {@link AnalysisCache}. */
+  @Param({"0"})
+  public int analysisCache;
+
+  private List<BenchmarkData.Record> sample;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    sample = BenchmarkData.records(records);
+  }
+
+  @Benchmark
+  public void parse(Blackhole bh) {
+    for (BenchmarkData.Record record : sample) {
+      bh.consume(BenchmarkData.parse(record));
+    }
+  }
+
+  @Benchmark
+  public long index() throws IOException {
+    IndexWriterConfig iwc = new IndexWriterConfig(analysisCache > 0
+            ? new AnalysisCache(new SpanishAnalyzer2(), AnalysisCache.DEFAULT_FIELDS, analysisCache)
+            : new SpanishAnalyzer2());
+    iwc.setSimilarity(new ClassicSimilarity());
+    try (ByteBuffersDirectory dir = new ByteBuffersDirectory();
+         IndexWriter writer = new IndexWriter(dir, iwc)) {
+      for (BenchmarkData.Record record : sample) {
+        writer.addDocument(FacetFields.build(BenchmarkData.parse(record)));
+      }
+      return writer.commit();
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.search.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Cost of turning an information need of <code>necesidadesInformacion.xml</code> into a query.
+ * <p>
+ * <code>tag</code> measures part of speech tagging alone and
+ * <code>query</code> tagging plus query building, each on the next need
+ * of the file. The tag cache is off, so every invocation runs the tagger.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InfoNeedBenchmark {
+
+  private List<String> needs;
+  private TaggingService tagger;
+  private InfoNeedQueryBuilder builder;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    needs = BenchmarkData.infoNeeds();
+    tagger = new TaggingService(new File(SearchFiles.POS_MODEL), 0);
+    builder = new InfoNeedQueryBuilder(new SpanishAnalyzer2());
+  }
+
+  private String nextNeed() {
+    String need = needs.get(next);
+    next = (next + 1) % needs.size();
+    return need;
+  }
+
+  @Benchmark
+  public TaggingService.Tagged tag() {
+    return tagger.tag(nextNeed());
+  }
+
+  @Benchmark
+  public Query query() throws Exception {
+    return SearchFiles.infoNeedQuery(nextNeed(), tagger, builder);
+  }
+}
@@ -0,0 +1,171 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Latency of the queries of <code>consultas.txt</code> and <code>necesidadesInformacion.xml</code>.
+ * <p>
+ * Every invocation runs the next query of the chosen shape and visits all
+ * its hits, or its top <code>k</code>, as {@link SearchFiles} does:
+ * <ul>
+ *   <li><code>spatial</code>: the lines with a bounding box,</li>
+ *   <li><code>date</code>: the date range lines,</li>
+ *   <li><code>field</code>: the field part of the spatial lines alone,</li>
+ *   <li><code>need</code>: the information needs, tagged and built into a
+ *       query on every invocation.</li>
+ * </ul>
+ * {@link InfoNeedBenchmark} measures the information needs without
+ * searching. The index is built in memory from the first
+ * <code>records</code> files of <code>recordsdc</code>, unless
+ * <code>index</code> names an existing one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+  @Param({"spatial", "date", "field", "need"})
+  public String shape;
+
+  /** Number of records of the in-memory index. */
+  @Param({"5000"})
+  public int records;
+
+  /**
+   * Hits visited per query, all of them if 0. Only the top k hits are
+   * counted exactly, so the search can skip the rest, see {@link PagedHits}.
+   */
+  @Param({"0"})
+  public int k;
+
+  /** Path of an index to search instead of the in-memory one. */
+  @Param({""})
+  public String index;
+
+  /** How that index is opened, see {@link Directories}. */
+  @Param({"fs"})
+  public String directory;
+
+  /** Memory of the cache of spatial and date constraints, 0 for none, see {@link FilterCache}. */
+  @Param({"32"})
+  public double filterCacheMB;
+
+  private Directory dir;
+  private IndexReader reader;
+  private IndexSearcher searcher;
+  private List<String> queries;
+  private DateFields.Parser parser;
+  private TaggingService tagger;
+  private InfoNeedQueryBuilder builder;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    dir = index.isEmpty()
+            ? BenchmarkData.index(BenchmarkData.records(records))
+            : Directories.open(Paths.get(index), directory);
+    reader = DirectoryReader.open(dir);
+    searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(new ClassicSimilarity());
+    new FilterCache((long) (filterCacheMB * 1024 * 1024)).configure(searcher);
+
+    Analyzer analyzer = index.isEmpty()
+            ? new SpanishAnalyzer2()
+            : FieldAnalyzers.read(Paths.get(index)).wrap(new SpanishAnalyzer2());
+    parser = new DateFields.Parser(SearchFiles.DEFAULT_FIELD, analyzer);
+    // no tag cache, every invocation pays for tagging
+    tagger = new TaggingService(new File(SearchFiles.POS_MODEL), 0);
+    builder = new InfoNeedQueryBuilder(analyzer);
+
+    queries = new ArrayList<>();
+    if ("need".equals(shape)) {
+      queries.addAll(BenchmarkData.infoNeeds());
+    } else {
+      for (String line : BenchmarkData.queryLines()) {
+        boolean spatial = line.startsWith("spatial");
+        if ("spatial".equals(shape) && spatial) {
+          queries.add(line);
+        } else if ("date".equals(shape) && !spatial) {
+          queries.add(line);
+        } else if ("field".equals(shape) && spatial && line.indexOf(' ') > 0) {
+          queries.add(line.substring(line.indexOf(' ') + 1));
+        }
+      }
+    }
+    if (queries.isEmpty()) {
+      throw new IllegalStateException("no query of shape " + shape);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    reader.close();
+    dir.close();
+  }
+
+  private Query nextQuery() throws ParseException {
+    String query = queries.get(next);
+    next = (next + 1) % queries.size();
+    return "need".equals(shape)
+            ? SearchFiles.infoNeedQuery(query, tagger, builder)
+            : SearchFiles.queryLineQuery(query, parser);
+  }
+
+  @Benchmark
+  public long search(Blackhole bh) throws Exception {
+    Query query = nextQuery();
+    if (query == null) {
+      return 0;
+    }
+    return k > 0
+            ? PagedHits.search(searcher, query, k, k, (hit, path) -> bh.consume(path)).value
+            : PagedHits.search(searcher, query, Integer.MAX_VALUE, (hit, path) -> bh.consume(path));
+  }
+}
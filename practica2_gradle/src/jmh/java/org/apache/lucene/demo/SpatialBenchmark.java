@@ -0,0 +1,163 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Latency of the bbox intersection query against the four range queries it replaced.
+ * <p>
+ * Every invocation counts the hits of the next random box with
+ * {@link SearchFiles#spatialQuery} (<code>bbox</code>) or
+ * {@link SearchFiles#spatialRangesQuery} (<code>ranges</code>). The setup
+ * checks that both match the same number of documents for every box. Unless
+ * <code>index</code> names an existing one, the index is an in-memory
+ * catalogue of <code>docs</code> random boxes, since the geographic
+ * collection is too small to measure. Some of the boxes, of the documents
+ * and of the queries, cross the antimeridian or have their south above their
+ * north, which both queries must handle alike.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpatialBenchmark {
+
+  @Param({"bbox", "ranges"})
+  public String query;
+
+  /** Number of boxes of the in-memory index. */
+  @Param({"1000000"})
+  public int docs;
+
+  /** Number of query boxes, searched in turn. */
+  @Param({"1000"})
+  public int queries;
+
+  /** Path of an index to search instead of the in-memory one. */
+  @Param({""})
+  public String index;
+
+  @Param({"42"})
+  public long seed;
+
+  private Directory dir;
+  private IndexReader reader;
+  private IndexSearcher searcher;
+  private Query[] boxes;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    Random random = new Random(seed);
+    if (index.isEmpty()) {
+      dir = new ByteBuffersDirectory();
+      try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig())) {
+        for (int i = 0; i < docs; i++) {
+          double[] box = randomBox(random, 10);
+          Document doc = new Document();
+          RecordParser.addBoundingBox(doc, box[0], box[2], box[1], box[3]);
+          writer.addDocument(doc);
+        }
+        writer.forceMerge(1);
+      }
+    } else {
+      dir = Directories.open(Paths.get(index), "fs");
+    }
+    reader = DirectoryReader.open(dir);
+    searcher = new IndexSearcher(reader);
+    // measure the queries, not the cache
+    searcher.setQueryCache(null);
+
+    boxes = new Query[queries];
+    for (int i = 0; i < queries; i++) {
+      double[] box = randomBox(random, 40);
+      Query bbox = SearchFiles.spatialQuery(box[0], box[1], box[2], box[3]);
+      Query ranges = SearchFiles.spatialRangesQuery(box[0], box[1], box[2], box[3]);
+      int expected = searcher.count(ranges);
+      int actual = searcher.count(bbox);
+      if (expected != actual) {
+        throw new IllegalStateException("box " + i + ": ranges match " + expected + " documents, bbox " + actual);
+      }
+      boxes[i] = "bbox".equals(query) ? bbox : ranges;
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    reader.close();
+    dir.close();
+  }
+
+  @Benchmark
+  public int search() throws IOException {
+    Query box = boxes[next];
+    next = (next + 1) % boxes.length;
+    return searcher.count(box);
+  }
+
+  /**
+   * Returns {west, east, south, north} of a box of up to the given size in
+   * degrees. One in twenty crosses the antimeridian, so its west is greater
+   * than its east, and one in fifty has its south and north swapped.
+   */
+  private static double[] randomBox(Random random, double maxSize) {
+    double width = random.nextDouble() * maxSize;
+    double height = random.nextDouble() * maxSize / 2;
+    double south = -90 + random.nextDouble() * (180 - height);
+    double[] box;
+    if (random.nextInt(20) == 0) {
+      double west = 180 - random.nextDouble() * width;
+      box = new double[] {west, west + width - 360, south, south + height};
+    } else {
+      double west = -180 + random.nextDouble() * (360 - width);
+      box = new double[] {west, west + width, south, south + height};
+    }
+    if (random.nextInt(50) == 0) {
+      box = new double[] {box[0], box[1], box[3], box[2]};
+    }
+    return box;
+  }
+}
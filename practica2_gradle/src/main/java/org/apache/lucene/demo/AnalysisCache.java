@@ -0,0 +1,262 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Analyzer that remembers the tokens of the values of low-cardinality fields.
+ * <p>
+ * Fields such as <code>tipo</code>, <code>departamento</code> or
+ * <code>director</code> take a few hundred distinct values over thousands
+ * of records. For those fields the whole value is looked up in a bounded
+ * table of already analyzed values, and on a hit its tokens are replayed
+ * instead of running the tokenizer, stop words and stemmer again. The
+ * tokens, positions and offsets are the same with or without the cache.
+ * <p>
+ * Like the {@link StemCacheFilter.Cache stem cache}, the table is direct
+ * mapped: every value has a single slot, chosen by its hash, and a new value
+ * evicts whatever was there. Entries are immutable, so the token streams of
+ * all the threads share it without locking.
+ */
+final class AnalysisCache extends AnalyzerWrapper {
+
+  /** Fields whose values repeat across records. */
+  static final Set<String> DEFAULT_FIELDS = Collections.unmodifiableSet(
+          new HashSet<>(Arrays.asList("tipo", "departamento", "autor", "director")));
+
+  /** Longer values are analyzed every time, they hardly ever repeat. */
+  private static final int MAX_VALUE_LENGTH = 256;
+
+  /** The tokens of an analyzed value. */
+  private static final class Entry {
+    final String field;
+    final String value;
+    final int hash;
+    final char[][] terms;
+    final int[] positionIncrements;
+    final int[] positionLengths;
+    final int[] startOffsets;
+    final int[] endOffsets;
+    // state of the stream once all its tokens are consumed
+    final int finalPositionIncrement;
+    final int finalOffset;
+
+    Entry(String field, String value, int hash, char[][] terms, int[] positionIncrements, int[] positionLengths,
+          int[] startOffsets, int[] endOffsets, int finalPositionIncrement, int finalOffset) {
+      this.field = field;
+      this.value = value;
+      this.hash = hash;
+      this.terms = terms;
+      this.positionIncrements = positionIncrements;
+      this.positionLengths = positionLengths;
+      this.startOffsets = startOffsets;
+      this.endOffsets = endOffsets;
+      this.finalPositionIncrement = finalPositionIncrement;
+      this.finalOffset = finalOffset;
+    }
+  }
+
+  private final Analyzer analyzer;
+  private final Set<String> fields;
+  private final Entry[] entries;
+  private final int mask;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * @param analyzer The analyzer of all the fields
+   * @param fields Fields whose values are cached
+   * @param capacity Maximum number of values kept, rounded up to a power of two
+   */
+  AnalysisCache(Analyzer analyzer, Set<String> fields, int capacity) {
+    super(PER_FIELD_REUSE_STRATEGY);
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    int size = Integer.highestOneBit(Math.min(capacity, 1 << 30));
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.analyzer = analyzer;
+    this.fields = fields;
+    this.entries = new Entry[size];
+    this.mask = size - 1;
+  }
+
+  /** Number of values whose tokens were found in the cache. */
+  long hits() {
+    return hits.sum();
+  }
+
+  /** Number of values of the cached fields that had to be analyzed. */
+  long misses() {
+    return misses.sum();
+  }
+
+  @Override
+  public String toString() {
+    long h = hits(), m = misses();
+    return "analysis cache: " + h + " hits, " + m + " misses"
+            + (h + m > 0 ? String.format(" (%.1f%% hits)", 100.0 * h / (h + m)) : "")
+            + ", " + entries.length + " slots";
+  }
+
+  @Override
+  protected Analyzer getWrappedAnalyzer(String fieldName) {
+    return analyzer;
+  }
+
+  @Override
+  protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+    if (!fields.contains(fieldName)) {
+      return components;
+    }
+    CachingStream stream = new CachingStream(fieldName, components);
+    return new TokenStreamComponents(stream::setValue, stream);
+  }
+
+  private Entry get(String field, String value, int hash) {
+    Entry entry = entries[hash & mask];
+    if (entry != null && entry.hash == hash && entry.value.equals(value) && entry.field.equals(field)) {
+      hits.increment();
+      return entry;
+    }
+    misses.increment();
+    return null;
+  }
+
+  /** Replays the tokens of a cached value, or analyzes and caches it first. */
+  private final class CachingStream extends TokenStream {
+    private final String field;
+    private final TokenStreamComponents components;
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+    private final PositionLengthAttribute posLenAtt = addAttribute(PositionLengthAttribute.class);
+    private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+    private final StringBuilder value = new StringBuilder();
+    private final char[] buffer = new char[1024];
+    private Entry entry;
+    private int next;
+
+    CachingStream(String field, TokenStreamComponents components) {
+      this.field = field;
+      this.components = components;
+    }
+
+    void setValue(Reader reader) {
+      value.setLength(0);
+      try {
+        for (int n = reader.read(buffer); n != -1; n = reader.read(buffer)) {
+          value.append(buffer, 0, n);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public void reset() throws IOException {
+      super.reset();
+      String text = value.toString();
+      int hash = text.hashCode() * 31 + field.hashCode();
+      hash ^= hash >>> 16;
+      entry = get(field, text, hash);
+      if (entry == null) {
+        entry = analyze(text, hash);
+        if (text.length() <= MAX_VALUE_LENGTH) {
+          entries[hash & mask] = entry;
+        }
+      }
+      next = 0;
+    }
+
+    private Entry analyze(String text, int hash) throws IOException {
+      components.getSource().accept(new StringReader(text));
+      TokenStream in = components.getTokenStream();
+      CharTermAttribute inTerm = in.addAttribute(CharTermAttribute.class);
+      PositionIncrementAttribute inPosInc = in.addAttribute(PositionIncrementAttribute.class);
+      PositionLengthAttribute inPosLen = in.addAttribute(PositionLengthAttribute.class);
+      OffsetAttribute inOffset = in.addAttribute(OffsetAttribute.class);
+      char[][] terms = new char[4][];
+      int[] posIncs = new int[4], posLens = new int[4], starts = new int[4], ends = new int[4];
+      int n = 0;
+      try {
+        in.reset();
+        while (in.incrementToken()) {
+          if (n == terms.length) {
+            terms = Arrays.copyOf(terms, 2 * n);
+            posIncs = Arrays.copyOf(posIncs, 2 * n);
+            posLens = Arrays.copyOf(posLens, 2 * n);
+            starts = Arrays.copyOf(starts, 2 * n);
+            ends = Arrays.copyOf(ends, 2 * n);
+          }
+          terms[n] = Arrays.copyOf(inTerm.buffer(), inTerm.length());
+          posIncs[n] = inPosInc.getPositionIncrement();
+          posLens[n] = inPosLen.getPositionLength();
+          starts[n] = inOffset.startOffset();
+          ends[n] = inOffset.endOffset();
+          n++;
+        }
+        in.end();
+      } finally {
+        in.close();
+      }
+      return new Entry(field, text, hash, Arrays.copyOf(terms, n), Arrays.copyOf(posIncs, n),
+              Arrays.copyOf(posLens, n), Arrays.copyOf(starts, n), Arrays.copyOf(ends, n),
+              inPosInc.getPositionIncrement(), inOffset.endOffset());
+    }
+
+    @Override
+    public boolean incrementToken() {
+      if (next == entry.terms.length) {
+        return false;
+      }
+      clearAttributes();
+      char[] term = entry.terms[next];
+      termAtt.copyBuffer(term, 0, term.length);
+      posIncAtt.setPositionIncrement(entry.positionIncrements[next]);
+      posLenAtt.setPositionLength(entry.positionLengths[next]);
+      offsetAtt.setOffset(entry.startOffsets[next], entry.endOffsets[next]);
+      next++;
+      return true;
+    }
+
+    @Override
+    public void end() throws IOException {
+      super.end();
+      posIncAtt.setPositionIncrement(entry.finalPositionIncrement);
+      offsetAtt.setOffset(entry.finalOffset, entry.finalOffset);
+    }
+  }
+}
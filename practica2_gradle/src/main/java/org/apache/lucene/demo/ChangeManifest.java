@@ -0,0 +1,233 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Remembers which files are in the index so that only the changes are re-indexed.
+ * <p>
+ * Every indexed file is recorded with its size, modification time and the
+ * SHA-1 of its contents, keyed by its path relative to the document
+ * directory, which is also the value of the document's <code>key</code>
+ * field. A file is re-parsed when it is new or its contents differ; the size
+ * and time are only used to skip reading files that were not touched, and
+ * the contents are hashed from the bytes read for parsing. A file is only
+ * recorded once it is unchanged or its document was added, so files that
+ * could not be read or parsed are tried again in the next run. Such a file
+ * keeps its previous entry, if any, so that it is not taken for a removed
+ * one and keeps its last good document.
+ * <p>
+ * Instances are thread safe.
+ */
+final class ChangeManifest {
+
+  /** Name of the manifest file inside the index directory. */
+  static final String FILE_NAME = "indexfiles.manifest";
+
+  private static final class Entry {
+    final long size;
+    final long modified;
+    final String hash;
+
+    Entry(long size, long modified, String hash) {
+      this.size = size;
+      this.modified = modified;
+      this.hash = hash;
+    }
+  }
+
+  private final Map<String, Entry> previous;
+  private final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+  private int added, changed, unchanged, failed;
+
+  private ChangeManifest(Map<String, Entry> previous) {
+    this.previous = previous;
+  }
+
+  /** Returns an empty manifest, for which every file is new. */
+  static ChangeManifest empty() {
+    return new ChangeManifest(new HashMap<>());
+  }
+
+  /**
+   * Reads the manifest saved by the previous run.
+   *
+   * @return the manifest, or <code>null</code> if there is none
+   * @throws IOException If there is a low-level I/O error
+   */
+  static ChangeManifest load(Path path) throws IOException {
+    Map<String, Entry> entries = new HashMap<>();
+    try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] cols = line.split("\t");
+        if (cols.length == 4) {
+          entries.put(cols[0], new Entry(Long.parseLong(cols[1]), Long.parseLong(cols[2]), cols[3]));
+        }
+      }
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    return new ChangeManifest(entries);
+  }
+
+  /**
+   * Checks the size and modification time of the file. Unchanged files are
+   * recorded in the new manifest.
+   *
+   * @param key The path of the file relative to the document directory
+   * @param file The file
+   * @return the change to complete once the file is read, or <code>null</code>
+   *         if the file was not touched
+   */
+  Change check(String key, File file) {
+    long size = file.length();
+    long modified = file.lastModified();
+    Entry old = previous.get(key);
+    if (old != null && old.size == size && old.modified == modified) {
+      record(key, old, false);
+      return null;
+    }
+    return new Change(key, size, modified, old);
+  }
+
+  /** A new or touched file, which is recorded once its contents are known to be unchanged or are indexed. */
+  final class Change {
+    private final String key;
+    private final long size;
+    private final long modified;
+    private final Entry old;
+    private String hash;
+
+    private Change(String key, long size, long modified, Entry old) {
+      this.key = key;
+      this.size = size;
+      this.modified = modified;
+      this.old = old;
+    }
+
+    /**
+     * Hashes the contents of the file, and records it if they did not
+     * change.
+     *
+     * @param bytes The contents of the file
+     * @return <code>true</code> if the file is new or changed and has to be indexed
+     */
+    boolean changed(byte[] bytes) {
+      hash = hash(bytes);
+      if (old != null && old.hash.equals(hash)) {
+        // touched but not modified
+        record(key, new Entry(size, modified, hash), false);
+        return false;
+      }
+      return true;
+    }
+
+    /** Records the file once its document was added to the index. */
+    void indexed() {
+      record(key, new Entry(size, modified, hash), true);
+    }
+
+    /** Keeps the previous entry of a file that could not be read or parsed. */
+    void failed() {
+      synchronized (ChangeManifest.this) {
+        if (old != null) {
+          current.put(key, old);
+        }
+        ChangeManifest.this.failed++;
+      }
+    }
+  }
+
+  private synchronized void record(String key, Entry entry, boolean indexed) {
+    current.put(key, entry);
+    if (!indexed) {
+      unchanged++;
+    } else if (previous.containsKey(key)) {
+      changed++;
+    } else {
+      added++;
+    }
+  }
+
+  /** Returns the keys of the files that were indexed before but were not checked in this run. */
+  List<String> removed() {
+    List<String> keys = new ArrayList<>();
+    for (String key : previous.keySet()) {
+      if (!current.containsKey(key)) {
+        keys.add(key);
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Writes the files checked in this run, replacing the previous manifest
+   * atomically.
+   *
+   * @throws IOException If there is a low-level I/O error
+   */
+  void save(Path path) throws IOException {
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, Entry> e : current.entrySet()) {
+        Entry entry = e.getValue();
+        out.write(e.getKey() + "\t" + entry.size + "\t" + entry.modified + "\t" + entry.hash);
+        out.newLine();
+      }
+    }
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** Prints how many files were added, changed, unchanged, removed and could not be indexed. */
+  synchronized void printSummary() {
+    System.out.println(added + " added, " + changed + " changed, " + unchanged + " unchanged, "
+        + removed().size() + " removed, " + failed + " failed");
+  }
+
+  private static String hash(byte[] bytes) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    digest.update(bytes);
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+}
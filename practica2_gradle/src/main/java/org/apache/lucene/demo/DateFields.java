@@ -0,0 +1,187 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.PointRangeQuery;
+import org.apache.lucene.search.Query;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Date fields indexed as numbers.
+ * <p>
+ * Dates are normalized to a <code>yyyymmdd</code> int, so that years,
+ * months and full dates compare correctly with each other, and indexed as
+ * an {@link IntPoint} for range queries and as doc values for sorting, next
+ * to the string terms of the same field. A partial date stands for the
+ * whole period: at index time it is stored as its first day, and in queries
+ * <code>issued:1994</code> matches any day of 1994 and
+ * <code>issued:[* TO 1994]</code> includes 1994-12-31.
+ */
+final class DateFields {
+
+  /** Fields that hold dates. */
+  static final Set<String> FIELDS = new HashSet<>(Arrays.asList("issued", "created", "fecha"));
+
+  private DateFields() {
+  }
+
+  /**
+   * Adds the point and the doc value of a date, if it can be parsed.
+   */
+  static void add(Document doc, String field, String date) {
+    int value = first(date);
+    if (value >= 0) {
+      doc.add(new IntPoint(field, value));
+      doc.add(new SortedNumericDocValuesField(field, value));
+    }
+  }
+
+  /**
+   * Returns the first day of the period, as <code>yyyymmdd</code>, or -1 if
+   * it is not a year, a year and month or a full date.
+   */
+  static int first(String date) {
+    return normalize(date, false);
+  }
+
+  /** Like {@link #first}, but returns the last day of the period. */
+  static int last(String date) {
+    return normalize(date, true);
+  }
+
+  private static int normalize(String date, boolean last) {
+    // keep only the digits, so 1994-01-01, 1994/01/01 and 19940101 are the same
+    int value = 0, digits = 0;
+    for (int i = 0; i < date.length(); i++) {
+      char c = date.charAt(i);
+      if (c >= '0' && c <= '9') {
+        if (++digits > 8) {
+          return -1;
+        }
+        value = value * 10 + (c - '0');
+      } else if (c != '-' && c != '/' && !Character.isWhitespace(c)) {
+        return -1;
+      }
+    }
+    switch (digits) {
+      case 4:
+        return value * 10000 + (last ? 1231 : 101);
+      case 6:
+        return value * 100 + (last ? 31 : 1);
+      case 8:
+        return value;
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Query parser that turns ranges and single values of the date fields
+   * into point range queries instead of term queries over the strings.
+   * They are constant score constraints, whose hits are cached, see
+   * {@link FilterCache}, and the ones every hit must meet are filters,
+   * which do not score: they would add the same score to every hit.
+   * Optional ones keep scoring, as a filter would drop the hits that only
+   * match the other clauses.
+   */
+  static class Parser extends QueryParser {
+
+    private boolean spatialFilter;
+
+    Parser(String field, Analyzer analyzer) {
+      super(field, analyzer);
+    }
+
+    /**
+     * Sets whether the bounding box that precedes a text query is a filter
+     * too, see {@link SearchFiles#queryLineQuery}. Unlike required dates,
+     * this changes the results.
+     */
+    void setSpatialFilter(boolean spatialFilter) {
+      this.spatialFilter = spatialFilter;
+    }
+
+    boolean getSpatialFilter() {
+      return spatialFilter;
+    }
+
+    @Override
+    protected Query getBooleanQuery(List<BooleanClause> clauses) throws ParseException {
+      for (int i = 0; i < clauses.size(); i++) {
+        BooleanClause clause = clauses.get(i);
+        if (clause.getOccur() == BooleanClause.Occur.MUST && isDateConstraint(clause.getQuery())) {
+          clauses.set(i, new BooleanClause(clause.getQuery(), BooleanClause.Occur.FILTER));
+        }
+      }
+      return super.getBooleanQuery(clauses);
+    }
+
+    private static boolean isDateConstraint(Query query) {
+      return query instanceof ConstantScoreQuery && ((ConstantScoreQuery) query).getQuery() instanceof PointRangeQuery;
+    }
+
+    @Override
+    protected Query getRangeQuery(String field, String part1, String part2,
+                                  boolean startInclusive, boolean endInclusive) throws ParseException {
+      if (!FIELDS.contains(field)) {
+        return super.getRangeQuery(field, part1, part2, startInclusive, endInclusive);
+      }
+      int lower = Integer.MIN_VALUE, upper = Integer.MAX_VALUE;
+      if (part1 != null) {
+        lower = startInclusive ? first(part1) : last(part1);
+        check(field, part1, lower);
+        if (!startInclusive) {
+          lower = Math.addExact(lower, 1);
+        }
+      }
+      if (part2 != null) {
+        upper = endInclusive ? last(part2) : first(part2);
+        check(field, part2, upper);
+        if (!endInclusive) {
+          upper = Math.addExact(upper, -1);
+        }
+      }
+      return FilterCache.constraint(IntPoint.newRangeQuery(field, lower, upper));
+    }
+
+    @Override
+    protected Query getFieldQuery(String field, String queryText, boolean quoted) throws ParseException {
+      if (FIELDS.contains(field) && first(queryText) >= 0) {
+        return FilterCache.constraint(IntPoint.newRangeQuery(field, first(queryText), last(queryText)));
+      }
+      return super.getFieldQuery(field, queryText, quoted);
+    }
+
+    private static void check(String field, String date, int value) throws ParseException {
+      if (value < 0) {
+        throw new ParseException("'" + date + "' is not a date for field " + field);
+      }
+    }
+  }
+}
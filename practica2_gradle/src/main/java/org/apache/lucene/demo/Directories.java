@@ -0,0 +1,103 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FileSwitchDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.MMapDirectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Ways of opening an index for searching, chosen with <code>-directory</code>.
+ * <ul>
+ * <li><code>fs</code>: {@link FSDirectory#open}, the best implementation for
+ * the platform, memory mapped on 64 bit JVMs. Pages are read on demand, so
+ * the first queries wait for the disk.</li>
+ * <li><code>mmap</code>: memory mapped, and the files searched by every query
+ * (terms dictionary, points, norms and doc values) are loaded into the page
+ * cache when the index opens. Stored fields and postings are read on demand.</li>
+ * <li><code>preload</code>: memory mapped, and the whole index is loaded into
+ * the page cache when it opens, off the Java heap.</li>
+ * <li><code>ram</code>: the whole index is copied to the Java heap. The copy
+ * is a snapshot, later changes to the index on disk are not seen.</li>
+ * </ul>
+ * Our collection is a few tens of megabytes, so any of them fits in memory.
+ */
+final class Directories {
+
+  static final List<String> MODES = Arrays.asList("fs", "mmap", "preload", "ram");
+
+  /**
+   * Extensions of the files preloaded by <code>mmap</code>: terms index and
+   * dictionary, points, norms and doc values. Small segments are written as
+   * compound files, which hold all the files of the segment, so those are
+   * preloaded whole.
+   */
+  private static final Set<String> HOT_EXTENSIONS = new HashSet<>(Arrays.asList(
+          "tip", "tim", "kdm", "kdi", "kdd", "nvm", "nvd", "dvm", "dvd", "cfs", "cfe"));
+
+  private Directories() {
+  }
+
+  /**
+   * Opens the given index directory.
+   *
+   * @param mode One of {@link #MODES}
+   * @throws IOException If there is a low-level I/O error
+   * @throws IllegalArgumentException If the mode is unknown
+   */
+  static Directory open(Path path, String mode) throws IOException {
+    switch (mode) {
+      case "fs":
+        return FSDirectory.open(path);
+      case "mmap":
+        MMapDirectory hot = new MMapDirectory(path);
+        hot.setPreload(true);
+        // both see the same files, each opens those of its extensions
+        return new FileSwitchDirectory(HOT_EXTENSIONS, hot, new MMapDirectory(path), true);
+      case "preload":
+        MMapDirectory all = new MMapDirectory(path);
+        all.setPreload(true);
+        return all;
+      case "ram":
+        return copyToHeap(path);
+      default:
+        throw new IllegalArgumentException("unknown directory mode '" + mode + "', expected one of " + MODES);
+    }
+  }
+
+  private static Directory copyToHeap(Path path) throws IOException {
+    Directory ram = new ByteBuffersDirectory();
+    try (Directory fs = FSDirectory.open(path)) {
+      // only the files of the last commit, which a running writer does not delete
+      for (String file : SegmentInfos.readLatestCommit(fs).files(true)) {
+        ram.copyFrom(fs, file, file, IOContext.READONCE);
+      }
+    }
+    return ram;
+  }
+}
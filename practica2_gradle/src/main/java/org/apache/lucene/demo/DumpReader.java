@@ -0,0 +1,150 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** Splits OAI-PMH <code>ListRecords</code> dumps into their records.
+ * <p>
+ * The dump is read sequentially in large blocks and scanned for
+ * <code>&lt;record&gt;</code> ... <code>&lt;/record&gt;</code> at the byte
+ * level, without parsing anything outside the records. Because of that the
+ * dump does not need to be a single well formed document: several harvested
+ * responses can simply be concatenated, each with its own XML declaration and
+ * resumption token. The records must declare the namespaces of their metadata,
+ * as OAI-PMH <code>oai_dc</code> records do, and be UTF-8 encoded.
+ */
+final class DumpReader implements Closeable {
+
+  private static final byte[] START = "<record".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] END = "</record>".getBytes(StandardCharsets.US_ASCII);
+
+  /** Size of each read, and initial size of the buffer. */
+  private static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+  private final FileChannel channel;
+  private byte[] buf = new byte[BLOCK_SIZE];
+  private int pos, limit;
+  private boolean eof;
+
+  DumpReader(File dump) throws IOException {
+    channel = FileChannel.open(dump.toPath(), StandardOpenOption.READ);
+  }
+
+  /**
+   * Returns the bytes of the next record, from its start tag to its end tag.
+   *
+   * @return the record, or <code>null</code> at the end of the dump
+   * @throws IOException If there is a low-level I/O error or the last record is truncated
+   */
+  byte[] next() throws IOException {
+    int start = -1;
+    while (start < 0) {
+      int s = indexOf(START, pos);
+      if (s >= 0 && s + START.length < limit) {
+        if (isNameEnd(buf[s + START.length])) {
+          start = s;
+        } else {
+          // another element, such as <recordX>
+          pos = s + 1;
+        }
+        continue;
+      }
+      if (eof) {
+        return null;
+      }
+      // keep what may be the beginning of a start tag
+      pos = s >= 0 ? s : Math.max(pos, limit - START.length);
+      fill();
+    }
+
+    pos = start;
+    int from = start + START.length;
+    while (true) {
+      int e = indexOf(END, from);
+      if (e >= 0) {
+        int end = e + END.length;
+        pos = end;
+        return Arrays.copyOfRange(buf, start, end);
+      }
+      if (eof) {
+        throw new IOException("truncated record at the end of the dump");
+      }
+      from = Math.max(from, limit - END.length + 1);
+      int shift = fill();
+      start -= shift;
+      from -= shift;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Discards the bytes before <code>pos</code> and reads the next block,
+   * growing the buffer if a single record does not fit.
+   *
+   * @return how many positions the retained bytes moved back
+   */
+  private int fill() throws IOException {
+    int shift = pos;
+    System.arraycopy(buf, pos, buf, 0, limit - pos);
+    limit -= pos;
+    pos = 0;
+    if (buf.length - limit < BLOCK_SIZE / 2) {
+      buf = Arrays.copyOf(buf, Math.max(buf.length * 2, limit + BLOCK_SIZE));
+    }
+    int n = channel.read(ByteBuffer.wrap(buf, limit, buf.length - limit));
+    if (n < 0) {
+      eof = true;
+    } else {
+      limit += n;
+    }
+    return shift;
+  }
+
+  private int indexOf(byte[] pattern, int from) {
+    int last = limit - pattern.length;
+    outer:
+    for (int i = from; i <= last; i++) {
+      if (buf[i] != pattern[0]) {
+        continue;
+      }
+      for (int j = 1; j < pattern.length; j++) {
+        if (buf[i + j] != pattern[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  private static boolean isNameEnd(byte b) {
+    return b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\n' || b == '\r';
+  }
+}
@@ -0,0 +1,118 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+
+/** Drill-down counts of the hits of a query by type, department, year, author and director.
+ * <p>
+ * {@link IndexFiles} adds the values of every dimension to the facet doc
+ * values of the document, with the Lucene facet module; the year is that
+ * of the <code>fecha</code> field. Searches count the hits of each value
+ * from the doc values, while collecting the hits, so facets never load
+ * stored fields. Counting needs every hit, so a search with facets visits
+ * all the matching documents, even when it returns only the top ones.
+ */
+final class FacetFields {
+
+  /** Dimensions of the facets, which are the fields their values come from. */
+  static final String[] DIMENSIONS = {"tipo", "departamento", "fecha", "autor", "director"};
+
+  private static final FacetsConfig CONFIG = new FacetsConfig();
+
+  static {
+    for (String dim : DIMENSIONS) {
+      // records may have several of any of them
+      CONFIG.setMultiValued(dim, true);
+    }
+  }
+
+  private final SortedSetDocValuesReaderState state;
+
+  /**
+   * Prepares the counting of facets on the given reader.
+   *
+   * @throws IOException If there is a low-level I/O error
+   * @throws IllegalArgumentException If the index was built without facets
+   */
+  FacetFields(IndexReader reader) throws IOException {
+    try {
+      // maps the values of every segment to global ordinals, once per reader
+      this.state = new DefaultSortedSetDocValuesReaderState(reader);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("the index has no facets, rebuild it with IndexFiles to count them", e);
+    }
+  }
+
+  /**
+   * Adds the facet values of a record to its document.
+   *
+   * @return the document to index
+   * @throws IOException If there is a low-level I/O error
+   */
+  static Document build(Document doc) throws IOException {
+    for (String dim : DIMENSIONS) {
+      for (String value : doc.getValues(dim)) {
+        String label = label(dim, value);
+        if (label != null) {
+          doc.add(new SortedSetDocValuesFacetField(dim, label));
+        }
+      }
+    }
+    return CONFIG.build(doc);
+  }
+
+  /** Returns the facet value of a field value, <code>null</code> if it has none. */
+  private static String label(String dim, String value) {
+    if ("fecha".equals(dim)) {
+      int date = DateFields.first(value);
+      return date < 0 ? null : String.valueOf(date / 10000);
+    }
+    String label = value.trim().replaceAll("\\s+", " ");
+    return label.isEmpty() ? null : label;
+  }
+
+  /**
+   * Returns the n values of every dimension with the most hits, and their
+   * counts, one dimension per line, or an empty string if there are no hits.
+   *
+   * @param hits All the hits of the query
+   * @throws IOException If there is a low-level I/O error
+   */
+  String count(FacetsCollector hits, int n) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (FacetResult result : new SortedSetDocValuesFacetCounts(state, hits).getAllDims(n)) {
+      sb.append(sb.length() == 0 ? "" : "\n").append("  ").append(result.dim).append(':');
+      for (LabelAndValue value : result.labelValues) {
+        sb.append(' ').append(value.label).append(" (").append(value.value).append(')');
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,108 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** Which fields are analyzed without stemming, chosen with <code>-unstemmed</code>.
+ * <p>
+ * Names and identifiers, such as those of <code>autor</code> or
+ * <code>director</code>, gain nothing from Spanish stemming: their tokens
+ * are only lowercased and stripped of stop words. The choice is recorded in
+ * the commit of the index, so searches analyze every field as it was
+ * indexed without being told, see {@link #read}.
+ */
+final class FieldAnalyzers {
+
+  /** Stems every field, as the index always did. */
+  static final FieldAnalyzers NONE = new FieldAnalyzers(Collections.emptySet());
+
+  /** Key of the unstemmed fields in the commit user data. */
+  private static final String COMMIT_KEY = "unstemmed";
+
+  private final Set<String> unstemmed;
+
+  private FieldAnalyzers(Set<String> unstemmed) {
+    this.unstemmed = unstemmed;
+  }
+
+  /** Parses the comma separated list of the unstemmed fields, or <code>none</code>. */
+  static FieldAnalyzers parse(String spec) {
+    if (spec == null || spec.isEmpty() || "none".equals(spec)) {
+      return NONE;
+    }
+    return new FieldAnalyzers(new LinkedHashSet<>(Arrays.asList(spec.split(","))));
+  }
+
+  /**
+   * Returns the fields the index was built unstemmed, read from its last
+   * commit, or from that of its first shard, see {@link Shards}.
+   *
+   * @throws IOException If there is a low-level I/O error
+   */
+  static FieldAnalyzers read(Path index) throws IOException {
+    Path path = Shards.count(index) > 0 ? Shards.dir(index, 0) : index;
+    try (Directory dir = FSDirectory.open(path)) {
+      if (!DirectoryReader.indexExists(dir)) {
+        return NONE;
+      }
+      return parse(SegmentInfos.readLatestCommit(dir).getUserData().get(COMMIT_KEY));
+    }
+  }
+
+  /** Returns the commit user data that records these fields. */
+  Map<String, String> commitData() {
+    Map<String, String> data = new HashMap<>();
+    data.put(COMMIT_KEY, toString());
+    return data;
+  }
+
+  /** Wraps the analyzer so that the unstemmed fields skip its stemming. */
+  Analyzer wrap(Analyzer stemmed) {
+    if (unstemmed.isEmpty()) {
+      return stemmed;
+    }
+    // the chain of SpanishAnalyzer2 without its last, stemming, step
+    Analyzer plain = new StandardAnalyzer(SpanishAnalyzer2.getDefaultStopSet());
+    Map<String, Analyzer> analyzers = new HashMap<>();
+    for (String field : unstemmed) {
+      analyzers.put(field, plain);
+    }
+    return new PerFieldAnalyzerWrapper(stemmed, analyzers);
+  }
+
+  @Override
+  public String toString() {
+    return unstemmed.isEmpty() ? "none" : String.join(",", unstemmed);
+  }
+}
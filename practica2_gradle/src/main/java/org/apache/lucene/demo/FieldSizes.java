@@ -0,0 +1,309 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.codecs.CompoundDirectory;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Size on disk of every field of an index.
+ * <p>
+ * A segment keeps each kind of data of all its fields in the same files, so
+ * the size of a field is an estimate: every file is split between the
+ * fields that have data in it, in proportion to
+ * <ul>
+ * <li>stored fields: the bytes of their values, before compression,</li>
+ * <li>terms dictionary: the bytes of their terms,</li>
+ * <li>postings: their document frequencies, and their term frequencies for
+ * the positions,</li>
+ * <li>norms and doc values: the number of documents that have them,</li>
+ * <li>points: the bytes of their points.</li>
+ * </ul>
+ * Files of no field, such as the segment metadata and the deletions, are
+ * reported as other. Compound files are looked into.
+ * <p>
+ * Run it on an existing index with <code>java org.apache.lucene.demo.FieldSizes -index &lt;indexPath&gt;</code>,
+ * or on the index being built with <code>IndexFiles -fieldSizes</code>.
+ */
+public class FieldSizes {
+
+  /** Columns of the report. */
+  private enum Part { STORED, TERMS, POSTINGS, NORMS, POINTS, DOC_VALUES }
+
+  /** What the files of every extension hold, and the weight of a field in them. */
+  private enum Data {
+    STORED(Part.STORED, "fdt", "fdx", "fdm"),
+    TERMS(Part.TERMS, "tim", "tip", "tmd"),
+    DOCS(Part.POSTINGS, "doc"),
+    POSITIONS(Part.POSTINGS, "pos", "pay"),
+    NORMS(Part.NORMS, "nvd", "nvm"),
+    POINTS(Part.POINTS, "kdd", "kdi", "kdm"),
+    DOC_VALUES(Part.DOC_VALUES, "dvd", "dvm");
+
+    final Part part;
+    final String[] extensions;
+
+    Data(Part part, String... extensions) {
+      this.part = part;
+      this.extensions = extensions;
+    }
+
+    static Data of(String extension) {
+      for (Data data : values()) {
+        for (String e : data.extensions) {
+          if (e.equals(extension)) {
+            return data;
+          }
+        }
+      }
+      return null;
+    }
+  }
+
+  /** Estimated bytes of every field, by part. */
+  private final Map<String, long[]> sizes = new HashMap<>();
+  private long other;
+
+  /** Reports the size of the fields of an index, all its shards together. */
+  public static void main(String[] args) throws IOException {
+    String usage = "Usage:\tjava org.apache.lucene.demo.FieldSizes -index <indexPath>";
+    String index = "index";
+    for (int i = 0; i < args.length; i++) {
+      if ("-index".equals(args[i])) {
+        index = args[i + 1];
+        i++;
+      } else {
+        System.err.println(usage);
+        System.exit(1);
+      }
+    }
+    Path path = Paths.get(index);
+    int shards = Shards.count(path);
+    FieldSizes sizes = new FieldSizes();
+    for (int i = 0; i < Math.max(1, shards); i++) {
+      try (Directory dir = FSDirectory.open(shards == 0 ? path : Shards.dir(path, i))) {
+        sizes.add(dir);
+      }
+    }
+    sizes.print(System.out);
+  }
+
+  /**
+   * Adds the fields of the last commit of an index.
+   *
+   * @throws IOException If there is a low-level I/O error
+   */
+  void add(Directory dir) throws IOException {
+    try (DirectoryReader reader = DirectoryReader.open(dir)) {
+      for (LeafReaderContext leaf : reader.leaves()) {
+        add(dir, (SegmentReader) leaf.reader());
+      }
+    }
+  }
+
+  private void add(Directory dir, SegmentReader segment) throws IOException {
+    SegmentCommitInfo info = segment.getSegmentInfo();
+    Map<String, Long> files = new HashMap<>();
+    for (String file : info.files()) {
+      if ("cfs".equals(IndexFileNames.getExtension(file))) {
+        try (CompoundDirectory cfs = info.info.getCodec().compoundFormat().getCompoundReader(dir, info.info, IOContext.READ)) {
+          for (String inner : cfs.listAll()) {
+            files.put(inner, cfs.fileLength(inner));
+          }
+        }
+      } else {
+        files.put(file, dir.fileLength(file));
+      }
+    }
+
+    Map<Data, Map<String, Long>> weights = weights(segment);
+    for (Map.Entry<String, Long> file : files.entrySet()) {
+      Data data = Data.of(IndexFileNames.getExtension(file.getKey()));
+      Map<String, Long> fields = data == null ? null : weights.get(data);
+      long total = 0;
+      if (fields != null) {
+        for (long weight : fields.values()) {
+          total += weight;
+        }
+      }
+      if (total == 0) {
+        other += file.getValue();
+        continue;
+      }
+      for (Map.Entry<String, Long> field : fields.entrySet()) {
+        long bytes = Math.round((double) file.getValue() * field.getValue() / total);
+        sizes.computeIfAbsent(field.getKey(), k -> new long[Part.values().length])[data.part.ordinal()] += bytes;
+      }
+    }
+  }
+
+  /** Returns the weight of every field in the files of every kind of data of the segment. */
+  private static Map<Data, Map<String, Long>> weights(SegmentReader segment) throws IOException {
+    Map<Data, Map<String, Long>> weights = new HashMap<>();
+    for (Data data : Data.values()) {
+      weights.put(data, new HashMap<>());
+    }
+
+    Map<String, Long> stored = weights.get(Data.STORED);
+    StoredFieldVisitor visitor = new StoredFieldVisitor() {
+      @Override
+      public Status needsField(FieldInfo fieldInfo) {
+        return Status.YES;
+      }
+
+      @Override
+      public void stringField(FieldInfo fieldInfo, byte[] value) {
+        stored.merge(fieldInfo.name, (long) value.length, Long::sum);
+      }
+
+      @Override
+      public void binaryField(FieldInfo fieldInfo, byte[] value) {
+        stored.merge(fieldInfo.name, (long) value.length, Long::sum);
+      }
+
+      @Override
+      public void intField(FieldInfo fieldInfo, int value) {
+        stored.merge(fieldInfo.name, (long) Integer.BYTES, Long::sum);
+      }
+
+      @Override
+      public void longField(FieldInfo fieldInfo, long value) {
+        stored.merge(fieldInfo.name, (long) Long.BYTES, Long::sum);
+      }
+
+      @Override
+      public void floatField(FieldInfo fieldInfo, float value) {
+        stored.merge(fieldInfo.name, (long) Float.BYTES, Long::sum);
+      }
+
+      @Override
+      public void doubleField(FieldInfo fieldInfo, double value) {
+        stored.merge(fieldInfo.name, (long) Double.BYTES, Long::sum);
+      }
+    };
+    // deleted documents take space too
+    for (int doc = 0; doc < segment.maxDoc(); doc++) {
+      segment.document(doc, visitor);
+    }
+
+    for (FieldInfo field : segment.getFieldInfos()) {
+      if (field.getIndexOptions() != IndexOptions.NONE) {
+        Terms terms = segment.terms(field.name);
+        if (terms != null) {
+          long termBytes = 0;
+          TermsEnum te = terms.iterator();
+          for (BytesRef term = te.next(); term != null; term = te.next()) {
+            termBytes += term.length;
+          }
+          weights.get(Data.TERMS).put(field.name, termBytes);
+          weights.get(Data.DOCS).put(field.name, terms.getSumDocFreq());
+          if (field.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0) {
+            weights.get(Data.POSITIONS).put(field.name, terms.getSumTotalTermFreq());
+          }
+          if (field.hasNorms()) {
+            weights.get(Data.NORMS).put(field.name, (long) terms.getDocCount());
+          }
+        }
+      }
+      if (field.getPointDimensionCount() > 0) {
+        PointValues points = segment.getPointValues(field.name);
+        if (points != null) {
+          weights.get(Data.POINTS).put(field.name,
+                  points.size() * points.getNumDimensions() * points.getBytesPerDimension());
+        }
+      }
+      if (field.getDocValuesType() != DocValuesType.NONE) {
+        weights.get(Data.DOC_VALUES).put(field.name, docValues(segment, field).cost());
+      }
+    }
+    return weights;
+  }
+
+  private static DocIdSetIterator docValues(SegmentReader segment, FieldInfo field) throws IOException {
+    switch (field.getDocValuesType()) {
+      case NUMERIC:
+        return segment.getNumericDocValues(field.name);
+      case BINARY:
+        return segment.getBinaryDocValues(field.name);
+      case SORTED:
+        return segment.getSortedDocValues(field.name);
+      case SORTED_NUMERIC:
+        return segment.getSortedNumericDocValues(field.name);
+      case SORTED_SET:
+        return segment.getSortedSetDocValues(field.name);
+      default:
+        throw new AssertionError(field.getDocValuesType());
+    }
+  }
+
+  /** Prints a table with the size of every field by kind of data, largest field first, in KB. */
+  void print(PrintStream out) {
+    List<Map.Entry<String, long[]>> fields = new ArrayList<>(sizes.entrySet());
+    fields.sort((a, b) -> Long.compare(total(b.getValue()), total(a.getValue())));
+    out.printf("%-14s %10s %10s %10s %10s %10s %10s %10s%n",
+            "field (KB)", "stored", "terms", "postings", "norms", "points", "docvalues", "total");
+    long[] sum = new long[Part.values().length];
+    for (Map.Entry<String, long[]> field : fields) {
+      long[] size = field.getValue();
+      print(out, field.getKey(), size, 0);
+      for (int i = 0; i < size.length; i++) {
+        sum[i] += size[i];
+      }
+    }
+    out.printf("%-14s %76.1f%n", "other", other / 1024.0);
+    print(out, "total", sum, other);
+  }
+
+  private static void print(PrintStream out, String name, long[] size, long more) {
+    out.printf("%-14s %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n", name,
+            size[0] / 1024.0, size[1] / 1024.0, size[2] / 1024.0, size[3] / 1024.0, size[4] / 1024.0, size[5] / 1024.0,
+            (total(size) + more) / 1024.0);
+  }
+
+  private static long total(long[] size) {
+    long total = 0;
+    for (long bytes : size) {
+      total += bytes;
+    }
+    return total;
+  }
+}
@@ -0,0 +1,107 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/** Which fields of a record keep their value in the index, chosen with <code>-store</code>.
+ * <p>
+ * Searches read the paths of the hits from doc values, so no field has to
+ * be stored for them; stored values are only read back by tools that show
+ * the documents. Every stored field makes the stored fields files larger,
+ * and less of the index fits in the page cache. Fields are always indexed,
+ * whatever their storage.
+ */
+final class FieldStorage {
+
+  /** Stores every field, as the index always did. */
+  static final FieldStorage ALL = new FieldStorage(null);
+
+  /** Stored fields, <code>null</code> for all. */
+  private final Set<String> stored;
+
+  private FieldStorage(Set<String> stored) {
+    this.stored = stored;
+  }
+
+  /**
+   * Parses a storage policy: <code>all</code>, <code>none</code> or the
+   * comma separated list of the fields to store.
+   */
+  static FieldStorage parse(String spec) {
+    if ("all".equals(spec)) {
+      return ALL;
+    }
+    if ("none".equals(spec)) {
+      return new FieldStorage(Collections.emptySet());
+    }
+    return new FieldStorage(new HashSet<>(Arrays.asList(spec.split(","))));
+  }
+
+  /** Returns whether the given field is stored. */
+  Field.Store of(String field) {
+    return stored == null || stored.contains(field) ? Field.Store.YES : Field.Store.NO;
+  }
+
+  /**
+   * Returns whether the index stores the values of the given field. The
+   * index does not record the storage of a field, so the value of the first
+   * document that has one of its terms is read in every segment.
+   *
+   * @return <code>true</code> if some segment stores it, <code>false</code>
+   *         if none does or the field is not indexed
+   * @throws IOException If there is a low-level I/O error
+   */
+  static boolean isStored(IndexReader reader, String field) throws IOException {
+    Set<String> load = Collections.singleton(field);
+    for (LeafReaderContext context : reader.leaves()) {
+      LeafReader leaf = context.reader();
+      Terms terms = leaf.terms(field);
+      if (terms == null) {
+        continue;
+      }
+      TermsEnum te = terms.iterator();
+      if (te.next() == null) {
+        continue;
+      }
+      int doc = te.postings(null, PostingsEnum.NONE).nextDoc();
+      if (doc != DocIdSetIterator.NO_MORE_DOCS && leaf.document(doc, load).get(field) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return stored == null ? "all" : stored.isEmpty() ? "none" : String.join(",", stored);
+  }
+}
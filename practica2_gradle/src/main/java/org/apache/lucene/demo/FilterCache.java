@@ -0,0 +1,127 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LRUQueryCache;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.UsageTrackingQueryCachingPolicy;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/** Cache of the documents that match the spatial and date constraints of queries.
+ * <p>
+ * Queries in the consultas.txt syntax repeat the same bounding boxes and
+ * date ranges over and over. These constraints are built as
+ * {@link ConstantScoreQuery ConstantScoreQueries}, whose inner query matches
+ * without scoring, which is what the query cache of an
+ * {@link IndexSearcher} can keep: the set of matching documents of every
+ * segment, as a bitset. This cache keeps those of a constraint from its
+ * second use on, on every segment, so a recurring constraint is nearly free
+ * after that. The cache is shared by all the searchers of a process, and
+ * its entries are dropped with the segments they belong to.
+ */
+final class FilterCache extends LRUQueryCache {
+
+  static final Metrics.Counter CACHE_HITS =
+          Metrics.counter("search_filter_cache_total", "Lookups of the filter cache, per segment.", "result", "hit");
+  static final Metrics.Counter CACHE_MISSES =
+          Metrics.counter("search_filter_cache_total", "Lookups of the filter cache, per segment.", "result", "miss");
+
+  /** Default maximum number of cached constraints. */
+  static final int DEFAULT_MAX_QUERIES = 1000;
+
+  /** Default maximum memory of the cached bitsets, in MB. */
+  static final double DEFAULT_MB = 32;
+
+  /** Caches constraints once they have been used twice, like other costly queries. */
+  static final QueryCachingPolicy POLICY = new UsageTrackingQueryCachingPolicy() {
+    @Override
+    protected int minFrequencyToCache(Query query) {
+      return isConstraint(query) ? 2 : super.minFrequencyToCache(query);
+    }
+  };
+
+  /** Fields of the constraints: the dates and the bounding box. */
+  private static final Set<String> CONSTRAINT_FIELDS = new HashSet<>(DateFields.FIELDS);
+
+  static {
+    CONSTRAINT_FIELDS.add("bbox");
+  }
+
+  private final boolean enabled;
+
+  /** @param maxBytes Maximum memory of the cached bitsets, 0 to cache nothing */
+  FilterCache(long maxBytes) {
+    // every segment, even the small ones: the whole index fits anyway
+    super(DEFAULT_MAX_QUERIES, maxBytes, context -> true, 250f);
+    this.enabled = maxBytes > 0;
+  }
+
+  /**
+   * Wraps a spatial or date constraint so that the documents it matches can
+   * be cached. It scores as the constraint itself did, a constant.
+   */
+  static Query constraint(Query query) {
+    return new ConstantScoreQuery(query);
+  }
+
+  /** Returns whether the query only looks at the fields of the constraints. */
+  static boolean isConstraint(Query query) {
+    Set<String> fields = new HashSet<>();
+    query.visit(new QueryVisitor() {
+      @Override
+      public boolean acceptField(String field) {
+        fields.add(field);
+        return true;
+      }
+    });
+    return !fields.isEmpty() && CONSTRAINT_FIELDS.containsAll(fields);
+  }
+
+  /** Makes the searcher cache its filters here, or nothing at all if the cache has no memory. */
+  IndexSearcher configure(IndexSearcher searcher) {
+    searcher.setQueryCache(enabled ? this : null);
+    searcher.setQueryCachingPolicy(POLICY);
+    return searcher;
+  }
+
+  @Override
+  protected void onHit(Object readerCoreKey, Query query) {
+    super.onHit(readerCoreKey, query);
+    CACHE_HITS.inc();
+  }
+
+  @Override
+  protected void onMiss(Object readerCoreKey, Query query) {
+    super.onMiss(readerCoreKey, query);
+    CACHE_MISSES.inc();
+  }
+
+  @Override
+  public String toString() {
+    long h = getHitCount(), m = getMissCount();
+    return "filter cache: " + h + " hits, " + m + " misses"
+            + (h + m > 0 ? String.format(" (%.1f%% hits)", 100.0 * h / (h + m)) : "")
+            + ", " + getCacheSize() + " bitsets in " + (ramBytesUsed() + 1023) / 1024 + " KB";
+  }
+}
@@ -18,33 +18,42 @@ package org.apache.lucene.demo;
  */
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.es.SpanishAnalyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.codecs.lucene86.Lucene86Codec;
 import org.apache.lucene.document.*;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.SortedNumericSortField;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.function.Supplier;
 
 /** Index all text files under a directory.
  * <p>
@@ -52,16 +61,91 @@ import java.util.Date;
  * Run it with no command-line arguments for usage information.
  */
 public class IndexFiles {
-  
+
+  // Time of each phase, per document unless noted, see -metrics
+  static final Metrics.Histogram READ_TIME = phase("read");
+  static final Metrics.Histogram PARSE_TIME = phase("parse");
+  /** Per field value; part of the add phase. */
+  static final Metrics.Histogram ANALYSIS_TIME = phase("analysis");
+  static final Metrics.Histogram ADD_TIME = phase("add");
+  /** Per merge, in the merge threads. */
+  static final Metrics.Histogram MERGE_TIME = phase("merge");
+  /** Closing the writer: the last flush, the pending merges and the commit. */
+  static final Metrics.Histogram COMMIT_TIME = phase("commit");
+  /** Building the suggestions, once per run. */
+  static final Metrics.Histogram SUGGEST_TIME = phase("suggest");
+  static final Metrics.Counter DOCUMENTS =
+          Metrics.counter("indexing_documents_total", "Documents added or updated.");
+  static final Metrics.Counter DELETES =
+          Metrics.counter("indexing_deletes_total", "Documents deleted.");
+  static final Metrics.Counter ERRORS =
+          Metrics.counter("indexing_errors_total", "Records that could not be parsed.");
+
+  private static Metrics.Histogram phase(String phase) {
+    return Metrics.histogram("indexing_phase_seconds", "Time spent in each phase of indexing.", "phase", phase);
+  }
+
   private IndexFiles() {}
 
   /** Index all text files under a directory. */
   public static void main(String[] args) {
     String usage = "java org.apache.lucene.demo.IndexFiles"
-                 + " -index <indexPath> -docs <docsPath>\n\n";
+                 + " -index <indexPath> (-docs <docsPath> | -dump <dumpFile>...)"
+                 + " [-update] [-threads <n>] [-ramBufferMB <mb>] [-stemCache <n>] [-analysisCache <n>]\n"
+                 + " [-metrics <file> [-metricsEvery <seconds>]]\n"
+                 + " [-optimizeFor write|read] [-forceMerge <maxSegments>]\n"
+                 + " [-shards <n> [-shard <i>]]\n"
+                 + " [-store all|none|<field>,...] [-storedCompression speed|size] [-fieldSizes]\n"
+                 + " [-unstemmed none|<field>,...] [-offsets] [-suggest]\n\n"
+                 + "-docs indexes one record per file, -dump (which may be repeated) indexes\n"
+                 + "every record of OAI-PMH ListRecords dumps. With -update only the files\n"
+                 + "added, changed or removed since the last run are indexed, or for dumps\n"
+                 + "the records are replaced in place and deleted ones removed. With -threads\n"
+                 + "the input is read, parsed and indexed by a staged pipeline of n parser\n"
+                 + "and n writer threads. -stemCache remembers up to n stems instead of\n"
+                 + "stemming every occurrence of a word again. -analysisCache remembers the\n"
+                 + "tokens of up to n values of tipo, departamento, autor and director instead\n"
+                 + "of analyzing every repeated value again. -metrics writes the time of\n"
+                 + "every indexing phase and the document counts to a Prometheus text file\n"
+                 + "(JSON if its name ends in .json) on exit, and every n seconds with\n"
+                 + "-metricsEvery. -optimizeFor read sorts the index by issue date, newest\n"
+                 + "first, merges more eagerly, does not use compound files and force merges the\n"
+                 + "index into a single segment at the end (or into n with -forceMerge n, 0 not\n"
+                 + "to force merge). An index built for reading must be updated for reading too.\n"
+                 + "-shards splits the index into n shards by the hash of the record, built in\n"
+                 + "parallel with at least n writer threads; updates keep the number of shards\n"
+                 + "of the index. A new sharded index replaces a plain one in the same directory,\n"
+                 + "and the other way round. -shard rebuilds only shard i from the whole input.\n"
+                 + "-store keeps the values of only the given fields (all by default); searches\n"
+                 + "read the paths from doc values and need none. -storedCompression compresses\n"
+                 + "stored values for speed (the default) or size. -fieldSizes prints the\n"
+                 + "estimated size on disk of every field at the end. -unstemmed indexes the\n"
+                 + "given fields, names such as autor or director, without stemming; the\n"
+                 + "index remembers them for searches and updates. -offsets indexes where every\n"
+                 + "term of titulo and descripcion occurs, so searches can highlight them; an\n"
+                 + "index built with offsets must be updated with offsets too. -suggest builds\n"
+                 + "the completions of titles, authors and directors, newest first, from the\n"
+                 + "stored fields once the index is written; updates rebuild them only if given.";
     String indexPath = "index";
     String docsPath = null;
+    List<File> dumps = new ArrayList<>();
     boolean create = true;
+    int threads = 1;
+    double ramBufferMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+    int stemCache = 0;
+    int analysisCache = 0;
+    String unstemmed = null;
+    String metrics = null;
+    double metricsEvery = 0;
+    boolean optimizeForRead = false;
+    int forceMerge = -1;
+    int shards = 0;
+    int onlyShard = -1;
+    FieldStorage storage = FieldStorage.ALL;
+    Lucene50StoredFieldsFormat.Mode storedMode = Lucene50StoredFieldsFormat.Mode.BEST_SPEED;
+    boolean fieldSizes = false;
+    boolean offsets = false;
+    boolean suggest = false;
     for(int i=0;i<args.length;i++) {
       if ("-index".equals(args[i])) {
         indexPath = args[i+1];
@@ -69,52 +153,284 @@ public class IndexFiles {
       } else if ("-docs".equals(args[i])) {
         docsPath = args[i+1];
         i++;
+      } else if ("-dump".equals(args[i])) {
+        dumps.add(new File(args[i+1]));
+        i++;
+      } else if ("-update".equals(args[i])) {
+        create = false;
+      } else if ("-threads".equals(args[i])) {
+        threads = Integer.parseInt(args[i+1]);
+        i++;
+      } else if ("-ramBufferMB".equals(args[i])) {
+        ramBufferMB = Double.parseDouble(args[i+1]);
+        i++;
+      } else if ("-stemCache".equals(args[i])) {
+        stemCache = Integer.parseInt(args[i+1]);
+        i++;
+      } else if ("-analysisCache".equals(args[i])) {
+        analysisCache = Integer.parseInt(args[i+1]);
+        i++;
+      } else if ("-unstemmed".equals(args[i])) {
+        unstemmed = args[i+1];
+        i++;
+      } else if ("-metrics".equals(args[i])) {
+        metrics = args[i+1];
+        i++;
+      } else if ("-metricsEvery".equals(args[i])) {
+        metricsEvery = Double.parseDouble(args[i+1]);
+        i++;
+      } else if ("-optimizeFor".equals(args[i])) {
+        if (!"read".equals(args[i+1]) && !"write".equals(args[i+1])) {
+          System.err.println("Usage: " + usage);
+          System.exit(1);
+        }
+        optimizeForRead = "read".equals(args[i+1]);
+        i++;
+      } else if ("-forceMerge".equals(args[i])) {
+        forceMerge = Integer.parseInt(args[i+1]);
+        i++;
+      } else if ("-shards".equals(args[i])) {
+        shards = Integer.parseInt(args[i+1]);
+        i++;
+      } else if ("-shard".equals(args[i])) {
+        onlyShard = Integer.parseInt(args[i+1]);
+        i++;
+      } else if ("-store".equals(args[i])) {
+        storage = FieldStorage.parse(args[i+1]);
+        i++;
+      } else if ("-storedCompression".equals(args[i])) {
+        if (!"speed".equals(args[i+1]) && !"size".equals(args[i+1])) {
+          System.err.println("Usage: " + usage);
+          System.exit(1);
+        }
+        storedMode = "size".equals(args[i+1])
+            ? Lucene50StoredFieldsFormat.Mode.BEST_COMPRESSION
+            : Lucene50StoredFieldsFormat.Mode.BEST_SPEED;
+        i++;
+      } else if ("-fieldSizes".equals(args[i])) {
+        fieldSizes = true;
+      } else if ("-offsets".equals(args[i])) {
+        offsets = true;
+      } else if ("-suggest".equals(args[i])) {
+        suggest = true;
       }
     }
 
-    if (docsPath == null) {
+    if ((docsPath == null) == dumps.isEmpty()) {
       System.err.println("Usage: " + usage);
       System.exit(1);
     }
 
-    final File docDir = new File(docsPath);
-    if (!docDir.exists() || !docDir.canRead()) {
+    final File docDir = docsPath == null ? null : new File(docsPath);
+    if (docDir != null && (!docDir.exists() || !docDir.canRead())) {
       System.out.println("Document directory '" +docDir.getAbsolutePath()+ "' does not exist or is not readable, please check the path");
       System.exit(1);
     }
+    for (File dump : dumps) {
+      if (!dump.isFile() || !dump.canRead()) {
+        System.out.println("Dump file '" +dump.getAbsolutePath()+ "' does not exist or is not readable, please check the path");
+        System.exit(1);
+      }
+    }
     
+    if (metrics != null) {
+      Metrics.export(Paths.get(metrics), metricsEvery);
+    }
+
     Date start = new Date();
     try {
       System.out.println("Indexing to directory '" + indexPath + "'...");
 
-      Directory dir = FSDirectory.open(Paths.get(indexPath));
-      Analyzer analyzer = new SpanishAnalyzer2();
-      IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
-
-      Similarity classic = new ClassicSimilarity();
-      iwc.setSimilarity(classic);
+      Path index = Paths.get(indexPath);
+      if (shards <= 0) {
+        // an update keeps the layout of the index
+        shards = create ? 1 : Math.max(1, Shards.count(index));
+      } else if (!create && shards != Math.max(1, Shards.count(index))) {
+        System.out.println("Index '" + indexPath + "' has " + Math.max(1, Shards.count(index))
+            + " shards, it cannot be updated with " + shards);
+        System.exit(1);
+      }
+      if (onlyShard >= shards) {
+        System.err.println("Usage: " + usage);
+        System.exit(1);
+      }
+      if (suggest) {
+        for (String[] fields : new String[][] {Suggestions.FIELDS, Suggestions.DATES}) {
+          for (String field : fields) {
+            if (storage.of(field) == Field.Store.NO) {
+              System.out.println("-suggest needs the values of " + field + ", which -store " + storage + " leaves out");
+              System.exit(1);
+            }
+          }
+        }
+      }
+      if (shards > 1 && threads < shards) {
+        threads = shards;
+      }
 
-      iwc.setOpenMode(OpenMode.CREATE);
+      SpanishAnalyzer2 spanish = new SpanishAnalyzer2(stemCache);
+      // updates and rebuilt shards keep the unstemmed fields of the index
+      FieldAnalyzers fieldAnalyzers = unstemmed != null ? FieldAnalyzers.parse(unstemmed)
+          : create && onlyShard < 0 ? FieldAnalyzers.NONE : FieldAnalyzers.read(index);
+      AnalysisCache values = analysisCache > 0
+          ? new AnalysisCache(fieldAnalyzers.wrap(spanish), AnalysisCache.DEFAULT_FIELDS, analysisCache) : null;
+      Analyzer analyzer = values != null ? values : fieldAnalyzers.wrap(spanish);
+      final FieldStorage stored = storage;
+      final boolean withOffsets = offsets;
+      // a parser per indexing thread
+      Supplier<RecordParser> parsers = () -> new RecordParser(stored, withOffsets);
+
+      // The manifest records what the index holds, so without it
+      // an update cannot tell which documents are stale. Dumps
+      // carry their own deletions and do not use it, and neither
+      // does the rebuild of a single shard, which starts from scratch:
+      Path manifestPath = Paths.get(indexPath, ChangeManifest.FILE_NAME);
+      ChangeManifest manifest = create || docDir == null || onlyShard >= 0 ? null : ChangeManifest.load(manifestPath);
+      if (onlyShard >= 0) {
+        System.out.println("Rebuilding shard " + onlyShard + " of " + shards);
+        create = true;
+        if (docDir != null) {
+          manifest = ChangeManifest.empty();
+        }
+      } else if (docDir == null) {
+        Files.deleteIfExists(manifestPath);
+      } else if (manifest == null) {
+        if (!create) {
+          System.out.println("No manifest found in '" + indexPath + "', rebuilding the whole index");
+        }
+        create = true;
+        manifest = ChangeManifest.empty();
+      }
+      if (create && onlyShard < 0) {
+        // shards of a previous layout would be searched too
+        int previous = Shards.count(index);
+        for (int i = shards == 1 ? 0 : shards; i < previous; i++) {
+          IOUtils.rm(Shards.dir(index, i));
+        }
+        // and so would, if any, the plain index the shards replace
+        if (shards > 1) {
+          Shards.deletePlainIndex(index);
+        }
+      }
 
-      // Optional: for better indexing performance, if you
-      // are indexing many documents, increase the RAM
-      // buffer.  But if you do this, increase the max heap
-      // size to the JVM (eg add -Xmx512m or -Xmx1g):
-      //
-      // iwc.setRAMBufferSizeMB(256.0);
+      final OpenMode openMode = create
+          // Create a new index in the directory, removing any
+          // previously indexed documents:
+          ? OpenMode.CREATE
+          // Add new documents to an existing index:
+          : OpenMode.CREATE_OR_APPEND;
+      final double ramBuffer = ramBufferMB;
+      final boolean forRead = optimizeForRead;
+      final Lucene50StoredFieldsFormat.Mode mode = storedMode;
+      ShardedWriter writers = new ShardedWriter(index, shards, onlyShard, () -> {
+        IndexWriterConfig iwc = new IndexWriterConfig(Metrics.timed(analyzer, ANALYSIS_TIME));
+        iwc.setMergeScheduler(new ConcurrentMergeScheduler() {
+          @Override
+          protected void doMerge(MergeSource mergeSource, MergePolicy.OneMerge merge) throws IOException {
+            long t0 = System.nanoTime();
+            super.doMerge(mergeSource, merge);
+            MERGE_TIME.observeSince(t0);
+          }
+        });
+
+        Similarity classic = new ClassicSimilarity();
+        iwc.setSimilarity(classic);
+        iwc.setOpenMode(openMode);
+        // segments record their mode, so an index can mix both, and
+        // merges rewrite the stored values with the current one
+        iwc.setCodec(new Lucene86Codec(mode));
+
+        // For better indexing performance, if you are indexing
+        // many documents, increase the RAM buffer with -ramBufferMB.
+        // But if you do this, increase the max heap size to the
+        // JVM (eg add -Xmx512m or -Xmx1g):
+        iwc.setRAMBufferSizeMB(ramBuffer);
+
+        if (forRead) {
+          configureForRead(iwc);
+        }
+        return iwc;
+      });
+      writers.setCommitData(fieldAnalyzers.commitData());
+      if (optimizeForRead && forceMerge < 0) {
+        forceMerge = 1;
+      }
 
-      IndexWriter writer = new IndexWriter(dir, iwc);
-      indexDocs(writer, docDir);
+      if (docDir == null) {
+        if (threads > 1) {
+          new IndexingPipeline(writers, threads, null, parsers).runDumps(dumps);
+        } else {
+          RecordParser parser = parsers.get();
+          for (File dump : dumps) {
+            indexDump(writers, dump, parser);
+          }
+        }
+      } else {
+        if (threads > 1) {
+          new IndexingPipeline(writers, threads, manifest, parsers).run(docDir);
+        } else {
+          indexDocs(writers, docDir, docDir, manifest, parsers.get());
+        }
+        for (String key : manifest.removed()) {
+          IndexWriter writer = writers.writerFor(key);
+          if (writer != null) {
+            System.out.println("removing " + key);
+            writer.deleteDocuments(new Term("key", key));
+            DELETES.inc();
+          }
+        }
+      }
 
       // NOTE: if you want to maximize search performance,
       // you can optionally call forceMerge here.  This can be
       // a terribly costly operation, so generally it's only
       // worth it when your index is relatively static (ie
-      // you're done adding documents to it):
-      //
-      // writer.forceMerge(1);
+      // you're done adding documents to it), so it is only
+      // done with -forceMerge or -optimizeFor read:
+      if (forceMerge > 0) {
+        System.out.println("Merging into at most " + forceMerge + " segments...");
+        writers.forceMerge(forceMerge);
+      }
 
-      writer.close();
+      long t0 = System.nanoTime();
+      writers.close();
+      COMMIT_TIME.observeSince(t0);
+      if (manifest != null && onlyShard < 0) {
+        manifest.save(manifestPath);
+        manifest.printSummary();
+      }
+      if (spanish.getStemCache() != null) {
+        System.out.println(spanish.getStemCache());
+      }
+      if (values != null) {
+        System.out.println(values);
+      }
+      // a scan of every stored document, so only on request
+      if (suggest) {
+        t0 = System.nanoTime();
+        try (IndexReader reader = Shards.openReader(index, "fs")) {
+          Suggestions suggestions = Suggestions.build(reader);
+          suggestions.save(index);
+          System.out.println(suggestions);
+        } catch (IllegalArgumentException e) {
+          // the index is written, only the suggestions are missing
+          System.out.println(e.getMessage());
+        }
+        SUGGEST_TIME.observeSince(t0);
+      }
+
+      FieldSizes sizes = fieldSizes ? new FieldSizes() : null;
+      for (Path shard : writers.paths()) {
+        try (Directory dir = FSDirectory.open(shard)) {
+          printSize(dir);
+          if (sizes != null) {
+            sizes.add(dir);
+          }
+        }
+      }
+      if (sizes != null) {
+        sizes.print(System.out);
+      }
 
       Date end = new Date();
       System.out.println(end.getTime() - start.getTime() + " total milliseconds");
@@ -125,6 +441,49 @@ public class IndexFiles {
     }
   }
 
+  /**
+   * Sort of an index built for reading: newest issue date first, and
+   * documents without one last. Documents come out of every segment in this
+   * order, so searches sorted by date can stop after the first hits.
+   */
+  static Sort readSort() {
+    SortedNumericSortField issued = new SortedNumericSortField("issued", SortField.Type.INT, true);
+    issued.setMissingValue(Integer.MIN_VALUE);
+    return new Sort(issued);
+  }
+
+  /**
+   * Tunes the writer for an index that is built in batches and then read
+   * heavily: the documents are sorted by {@link #readSort}, segments are
+   * merged more eagerly and stored as separate files, which costs more file
+   * handles but saves a level of indirection on every read.
+   */
+  static void configureForRead(IndexWriterConfig iwc) {
+    iwc.setIndexSort(readSort());
+    iwc.setUseCompoundFile(false);
+    TieredMergePolicy mergePolicy = new TieredMergePolicy();
+    // fewer, larger segments: every segment adds a term lookup per query term
+    mergePolicy.setSegmentsPerTier(4);
+    mergePolicy.setFloorSegmentMB(8);
+    mergePolicy.setMaxMergedSegmentMB(10 * 1024);
+    // reclaim deleted documents, which are still visited by searches, sooner
+    mergePolicy.setDeletesPctAllowed(20);
+    mergePolicy.setNoCFSRatio(0.0);
+    iwc.setMergePolicy(mergePolicy);
+  }
+
+  /** Prints the number of segments and the size on disk of the index. */
+  private static void printSize(Directory dir) throws IOException {
+    long bytes = 0;
+    for (String file : dir.listAll()) {
+      if (!file.equals(ChangeManifest.FILE_NAME)) {
+        bytes += dir.fileLength(file);
+      }
+    }
+    int segments = SegmentInfos.readLatestCommit(dir).size();
+    System.out.printf("index size %.1f MB in %d segments%n", bytes / 1048576.0, segments);
+  }
+
   /**
    * Indexes the given file using the given writer, or if a directory is given,
    * recurses over files and directories found under the given directory.
@@ -136,11 +495,14 @@ public class IndexFiles {
    * <a href="../../../../../contrib-benchmark/org/apache/lucene/benchmark/byTask/tasks/WriteLineDocTask.html"
    * >WriteLineDocTask</a>.
    *  
-   * @param writer Writer to the index where the given file/dir info will be stored
+   * @param writers Writers of the shards of the index where the given file/dir info will be stored
+   * @param docDir The document directory the keys are relative to
    * @param file The file to index, or the directory to recurse into to find files to index
+   * @param manifest Manifest that tells which files changed since the last run
+   * @param parser The parser of the calling thread
    * @throws IOException If there is a low-level I/O error
    */
-  static void indexDocs(IndexWriter writer, File file)
+  static void indexDocs(ShardedWriter writers, File docDir, File file, ChangeManifest manifest, RecordParser parser)
     throws IOException {
     // do not try to index files that cannot be read
     if (file.canRead()) {
@@ -149,149 +511,230 @@ public class IndexFiles {
         // an IO error could occur
         if (files != null) {
           for (int i = 0; i < files.length; i++) {
-            indexDocs(writer, new File(file, files[i]));
+            indexDocs(writers, docDir, new File(file, files[i]), manifest, parser);
           }
         }
       } else {
-
-        FileInputStream fis;
-        try {
-          fis = new FileInputStream(file);
-        } catch (FileNotFoundException fnfe) {
-          // at least on windows, some temporary files raise this exception with an "access denied" message
-          // checking if the file can be read doesn't help
+        String key = keyOf(docDir, file);
+        IndexWriter writer = writers.writerFor(key);
+        if (writer == null) {
           return;
         }
+        ChangeManifest.Change change = manifest.check(key, file);
+        if (change == null) {
+          return;
+        }
+        Document doc = parseDocument(file, key, change, parser);
+        if (doc != null) {
+          if (writer.getConfig().getOpenMode() == OpenMode.CREATE) {
+            System.out.println("adding " + file);
+          } else {
+            System.out.println("updating " + file);
+          }
+          writeDocument(writer, key, doc);
+          change.indexed();
+        }
+      }
+    }
+  }
 
-        try {
-
-          // make a new, empty document
-          Document doc = new Document();
-
-          // Add the path of the file as a field named "path".  Use a
-          // field that is indexed (i.e. searchable), but don't tokenize 
-          // the field into separate words and don't index term frequency
-          // or positional information:
-          Field pathField = new StringField("path", file.getName(), Field.Store.YES);
-          doc.add(pathField);
-
-          // Add the contents of the file to a field named "contents".  Specify a Reader,
-          // so that the text of the file is tokenized and indexed, but not stored.
-          // Note that FileReader expects the file to be in UTF-8 encoding.
-          // If that's not the case searching for special characters will fail.
-          //    doc.add(new TextField("contents", new BufferedReader(new InputStreamReader(fis, "UTF-8"))));
-
-          DocumentBuilderFactory db = DocumentBuilderFactory.newInstance();
-          try {
-            DocumentBuilder db2 = db.newDocumentBuilder();
-            org.w3c.dom.Document d = db2.parse(file);
-            d.getDocumentElement().normalize();
-            
-            NodeList nl = d.getElementsByTagName("dc:title");
-            for (int i = 0; i < nl.getLength(); i++) {
-              Element e = (Element) nl.item(i);
-              doc.add(new TextField("titulo", e.getTextContent(), Field.Store.YES));
-            }
-
-            nl = d.getElementsByTagName("dc:type");
-            for (int i = 0; i < nl.getLength(); i++) {
-              Element e = (Element) nl.item(i);
-              doc.add(new TextField("tipo", e.getTextContent(), Field.Store.YES));
-            }
-
-            nl = d.getElementsByTagName("dc:date");
-            for (int i = 0; i < nl.getLength(); i++) {
-              Element e = (Element) nl.item(i);
-              doc.add(new StringField("fecha", e.getTextContent(), Field.Store.YES));
-            }
-
-            nl = d.getElementsByTagName("dc:description");
-            for (int i = 0; i < nl.getLength(); i++) {
-              Element e = (Element) nl.item(i);
-              doc.add(new TextField("descripcion", e.getTextContent(), Field.Store.YES));
-            }
-
-            nl = d.getElementsByTagName("dc:creator");
-            for (int i = 0; i < nl.getLength(); i++) {
-              Element e = (Element) nl.item(i);
-              doc.add(new TextField("autor", e.getTextContent(), Field.Store.YES));
-            }
-
-            nl = d.getElementsByTagName("dc:publisher");
-            for (int i = 0; i < nl.getLength(); i++) {
-              Element e = (Element) nl.item(i);
-              doc.add(new TextField("departamento", e.getTextContent(), Field.Store.YES));
-            }
-
-            nl = d.getElementsByTagName("dc:contributor");
-            for (int i = 0; i < nl.getLength(); i++) {
-              Element e = (Element) nl.item(i);
-              doc.add(new TextField("director", e.getTextContent(), Field.Store.YES));
-            }
-
-            nl = d.getElementsByTagName("dcterms:issued");
-            for (int i = 0; i < nl.getLength(); i++) {
-              Element e = (Element) nl.item(i);
-              doc.add(new StringField("issued", (e.getTextContent()).replaceAll("-",""), Field.Store.YES));
-            }
-
-            nl = d.getElementsByTagName("dcterms:created");
-            for (int i = 0; i < nl.getLength(); i++) {
-              Element e = (Element) nl.item(i);
-              doc.add(new StringField("created", (e.getTextContent()).replaceAll("-",""), Field.Store.YES));
-            }
-
-            nl = d.getElementsByTagName("ows:BoundingBox");
-            for (int i = 0; i < nl.getLength(); i++) {
-              Element e = (Element) nl.item(i);
-
-              //Xmin Ymin
-              NodeList bot = e.getElementsByTagName("ows:LowerCorner");
-              Element e1 = (Element) bot.item(0);
+  /**
+   * Indexes every record of an OAI-PMH <code>ListRecords</code> dump, see
+   * {@link DumpReader}. Each record gets the same fields as if it had been
+   * harvested to its own file.
+   *
+   * @param writers Writers of the shards of the index where the records will be stored
+   * @param dump The dump to read
+   * @param parser The parser of the calling thread
+   * @throws IOException If there is a low-level I/O error
+   */
+  static void indexDump(ShardedWriter writers, File dump, RecordParser parser) throws IOException {
+    System.out.println("reading " + dump);
+    try (DumpReader records = new DumpReader(dump)) {
+      while (true) {
+        long t0 = System.nanoTime();
+        byte[] record = records.next();
+        if (record == null) {
+          break;
+        }
+        READ_TIME.observeSince(t0);
+        Document doc = parseRecord(record, parser);
+        if (parser.identifier() != null) {
+          String key = keyOf(parser.identifier());
+          IndexWriter writer = writers.writerFor(key);
+          if (writer != null) {
+            writeRecord(writer, key, doc);
+          }
+        }
+      }
+    }
+  }
 
-              //Xmax Ymax
-              NodeList top = e.getElementsByTagName("ows:UpperCorner");
-              Element e2 = (Element) top.item(0);
+  /**
+   * Returns the key that identifies the document of the given file, its path
+   * relative to the document directory.
+   */
+  static String keyOf(File docDir, File file) {
+    String key = docDir.toPath().relativize(file.toPath()).toString();
+    if (key.isEmpty()) {
+      // the document directory is the file itself
+      key = file.getName();
+    }
+    return key.replace(File.separatorChar, '/');
+  }
 
-              String str_bot = e1.getTextContent();
-              String str_top = e2.getTextContent();
+  /**
+   * Returns the key of an OAI-PMH record, the name of the file it is
+   * harvested to (<code>oai:zaguan.unizar.es:10002</code> is stored in
+   * <code>oai_zaguan.unizar.es_10002.xml</code>).
+   */
+  static String keyOf(String identifier) {
+    return identifier.replace(':', '_') + ".xml";
+  }
 
-              String[] split = str_bot.split("\\s+");
+  /**
+   * Builds the Lucene document for a record of a dump. Afterwards the
+   * identifier and status of the record can be read from the parser.
+   *
+   * @param record The record, from <code>&lt;record&gt;</code> to <code>&lt;/record&gt;</code>
+   * @param parser The parser of the calling thread
+   * @return the document, or <code>null</code> if the record is malformed or was deleted
+   */
+  static Document parseRecord(byte[] record, RecordParser parser) {
+    Document doc = new Document();
+    long t0 = System.nanoTime();
+    try {
+      parser.parse(new ByteArrayInputStream(record), doc);
+    } catch (XMLStreamException e) {
+      ERRORS.inc();
+      e.printStackTrace();
+      return null;
+    } finally {
+      PARSE_TIME.observeSince(t0);
+    }
+    if (parser.identifier() == null || parser.deleted()) {
+      return null;
+    }
+    String key = keyOf(parser.identifier());
+    addPath(doc, key, parser.storage());
+    doc.add(new StringField("key", key, Field.Store.NO));
+    return doc;
+  }
 
-              DoublePoint westField = new DoublePoint ("west" , Double.parseDouble(split[0])) ;
-              doc.add ( westField ) ;
-              DoublePoint soutfield = new DoublePoint ("south" , Double.parseDouble(split[1])) ;
-              doc.add ( soutfield ) ;
+  /**
+   * Builds the Lucene document for a single XML record.
+   *
+   * @param file The record to parse
+   * @param key The key of the document, see {@link #keyOf}
+   * @param change The change of the file in the manifest, which is told its contents
+   * @param parser The parser of the calling thread
+   * @return the document, or <code>null</code> if the file could not be opened, its
+   *         contents did not change or it could not be parsed
+   * @throws IOException If there is a low-level I/O error
+   */
+  static Document parseDocument(File file, String key, ChangeManifest.Change change, RecordParser parser)
+      throws IOException {
+    FileInputStream fis;
+    try {
+      fis = new FileInputStream(file);
+    } catch (FileNotFoundException fnfe) {
+      // at least on windows, some temporary files raise this exception with an "access denied" message
+      // checking if the file can be read doesn't help
+      change.failed();
+      return null;
+    }
 
-              split = str_top.split("\\s+");
+    try {
+      // make a new, empty document
+      Document doc = new Document();
+
+      addPath(doc, file.getName(), parser.storage());
+
+      // The key is unique across subdirectories and is what updates
+      // and deletes match on:
+      doc.add(new StringField("key", key, Field.Store.NO));
+
+      // Add the contents of the file to a field named "contents".  Specify a Reader,
+      // so that the text of the file is tokenized and indexed, but not stored.
+      // Note that FileReader expects the file to be in UTF-8 encoding.
+      // If that's not the case searching for special characters will fail.
+      //    doc.add(new TextField("contents", new BufferedReader(new InputStreamReader(fis, "UTF-8"))));
+
+      long t0 = System.nanoTime();
+      byte[] bytes = fis.readAllBytes();
+      READ_TIME.observeSince(t0);
+      if (!change.changed(bytes)) {
+        return null;
+      }
+      t0 = System.nanoTime();
+      try {
+        parser.parse(new ByteArrayInputStream(bytes), doc);
+      } catch (XMLStreamException e) {
+        ERRORS.inc();
+        e.printStackTrace();
+        change.failed();
+        return null;
+      } finally {
+        PARSE_TIME.observeSince(t0);
+      }
 
-              DoublePoint eastField = new DoublePoint ("east" , Double.parseDouble(split[0])) ;
-              doc.add ( eastField ) ;
-              DoublePoint northfield = new DoublePoint ("north" , Double.parseDouble(split[1])) ;
-              doc.add ( northfield ) ;
-            }
+      return doc;
+    } finally {
+      fis.close();
+    }
+  }
 
+  /**
+   * Adds the path of the record as a field named "path", stored as the given
+   * storage says.
+   */
+  static void addPath(Document doc, String path, FieldStorage storage) {
+    // Use a field that is indexed (i.e. searchable), but don't tokenize
+    // the field into separate words and don't index term frequency
+    // or positional information:
+    Field pathField = new StringField("path", path, storage.of("path"));
+    doc.add(pathField);
+    // Also as doc values, so that result lists can be produced
+    // without loading the stored fields of every hit:
+    doc.add(new SortedDocValuesField("path", new BytesRef(path)));
+  }
 
-          } catch (ParserConfigurationException | SAXException e) {
-            e.printStackTrace();
-          }
+  /**
+   * Adds the document to the index, or replaces the previous copy of the same
+   * file when updating an existing index.
+   *
+   * @param writer Writer to the index where the document will be stored
+   * @param key The key of the document, see {@link #keyOf}
+   * @param doc The document to store
+   * @throws IOException If there is a low-level I/O error
+   */
+  static void writeDocument(IndexWriter writer, String key, Document doc) throws IOException {
+    long t0 = System.nanoTime();
+    // drill-down counts of results are computed from doc values
+    doc = FacetFields.build(doc);
+    if (writer.getConfig().getOpenMode() == OpenMode.CREATE) {
+      // New index, so we just add the document (no old document can be there):
+      writer.addDocument(doc);
+    } else {
+      // Existing index (an old copy of this document may have been indexed) so 
+      // we use updateDocument instead to replace the old one matching the same
+      // key, if present:
+      writer.updateDocument(new Term("key", key), doc);
+    }
+    ADD_TIME.observeSince(t0);
+    DOCUMENTS.inc();
+  }
 
-          if (writer.getConfig().getOpenMode() == OpenMode.CREATE) {
-            // New index, so we just add the document (no old document can be there):
-            System.out.println("adding " + file);
-            writer.addDocument(doc);
-          } else {
-            // Existing index (an old copy of this document may have been indexed) so 
-            // we use updateDocument instead to replace the old one matching the exact 
-            // path, if present:
-            System.out.println("updating " + file);
-            writer.updateDocument(new Term("path", file.getPath()), doc);
-          }
-          
-        } finally {
-          fis.close();
-        }
-      }
+  /**
+   * Like {@link #writeDocument}, but a <code>null</code> document means the
+   * record was deleted at the source and has to be removed from the index.
+   */
+  static void writeRecord(IndexWriter writer, String key, Document doc) throws IOException {
+    if (doc != null) {
+      writeDocument(writer, key, doc);
+    } else if (writer.getConfig().getOpenMode() != OpenMode.CREATE) {
+      writer.deleteDocuments(new Term("key", key));
+      DELETES.inc();
     }
   }
 }
\ No newline at end of file
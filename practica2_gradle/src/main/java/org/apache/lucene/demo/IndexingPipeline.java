@@ -0,0 +1,332 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/** Multi-threaded version of {@link IndexFiles#indexDocs}.
+ * <p>
+ * The work is split into three stages joined by bounded queues, so a slow
+ * stage blocks the ones in front of it instead of buffering the whole
+ * collection in memory:
+ * <ol>
+ *   <li>walk: one thread recurses over the document directory, or splits
+ *       the OAI-PMH dumps into records (then it is called read),</li>
+ *   <li>parse: n threads turn each XML record into a {@link Document},</li>
+ *   <li>write: n threads hand the documents to the shared {@link IndexWriter}
+ *       of their shard, which is thread safe and analyzes them concurrently.</li>
+ * </ol>
+ * Files the {@link ChangeManifest} reports as untouched stop at the walk
+ * stage, and touched files whose contents did not change at the parse
+ * stage. When the run finishes the throughput of every stage is printed.
+ */
+final class IndexingPipeline {
+
+  /** Number of queued items allowed per worker thread before producers block. */
+  private static final int QUEUE_SIZE_PER_THREAD = 64;
+
+  /** Marks the end of the input in the file queue. */
+  private static final Record END_OF_FILES = new Record(null, null, null);
+
+  /** Marks the end of the input in the document queue. */
+  private static final Record END_OF_DOCS = new Record(null, null, null);
+
+  private final ShardedWriter writers;
+  private final int threads;
+  private final ChangeManifest manifest;
+  private final Supplier<RecordParser> parsers;
+  private final BlockingQueue<Record> files;
+  private final BlockingQueue<Record> docs;
+
+  private StageStats walkStats;
+  private final StageStats parseStats;
+  private final StageStats writeStats;
+
+  /**
+   * @param writers Writers of the shards, shared by all the write threads
+   * @param threads Number of threads of the parse and the write stages
+   * @param manifest Manifest that tells which files changed since the last run,
+   *                 not used for dumps
+   * @param parsers Creates the parser of every parse thread
+   */
+  IndexingPipeline(ShardedWriter writers, int threads, ChangeManifest manifest, Supplier<RecordParser> parsers) {
+    this.writers = writers;
+    this.threads = threads;
+    this.manifest = manifest;
+    this.parsers = parsers;
+    this.files = new ArrayBlockingQueue<>(threads * QUEUE_SIZE_PER_THREAD);
+    this.docs = new ArrayBlockingQueue<>(threads * QUEUE_SIZE_PER_THREAD);
+    this.parseStats = new StageStats("parse", threads);
+    this.writeStats = new StageStats("write", threads);
+  }
+
+  /**
+   * Indexes every file under the given directory and waits for all the stages
+   * to finish. If any stage fails the others are interrupted and the error is
+   * rethrown.
+   *
+   * @param docDir The file to index, or the directory to recurse into to find files to index
+   * @throws IOException If there is a low-level I/O error
+   */
+  void run(File docDir) throws IOException {
+    walkStats = new StageStats("walk", 1);
+    run(() -> walk(docDir, docDir));
+  }
+
+  /**
+   * Indexes every record of the given OAI-PMH dumps, as
+   * {@link IndexFiles#indexDump} does, and waits for all the stages to finish.
+   *
+   * @param dumps The dumps to read, in order
+   * @throws IOException If there is a low-level I/O error
+   */
+  void runDumps(List<File> dumps) throws IOException {
+    walkStats = new StageStats("read", 1);
+    run(() -> {
+      for (File dump : dumps) {
+        read(dump);
+      }
+    });
+  }
+
+  /** The first stage, which queues the input for the parsers. */
+  private interface Source {
+    void queueAll() throws IOException, InterruptedException;
+  }
+
+  private void run(Source source) throws IOException {
+    ExecutorService pool = Executors.newFixedThreadPool(1 + 2 * threads);
+    CompletionService<Void> stages = new ExecutorCompletionService<>(pool);
+    AtomicInteger parsersLeft = new AtomicInteger(threads);
+    long start = System.nanoTime();
+
+    int tasks = 0;
+    stages.submit(() -> {
+      source.queueAll();
+      for (int i = 0; i < threads; i++) {
+        files.put(END_OF_FILES);
+      }
+      return null;
+    });
+    tasks++;
+    for (int i = 0; i < threads; i++) {
+      stages.submit(() -> {
+        parse();
+        // the last parser to finish tells every writer to stop
+        if (parsersLeft.decrementAndGet() == 0) {
+          for (int j = 0; j < threads; j++) {
+            docs.put(END_OF_DOCS);
+          }
+        }
+        return null;
+      });
+      tasks++;
+    }
+    for (int i = 0; i < threads; i++) {
+      stages.submit(() -> {
+        write();
+        return null;
+      });
+      tasks++;
+    }
+
+    try {
+      for (int i = 0; i < tasks; i++) {
+        stages.take().get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("indexing interrupted");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("indexing pipeline failed", e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+
+    long elapsed = System.nanoTime() - start;
+    walkStats.print(elapsed);
+    parseStats.print(elapsed);
+    writeStats.print(elapsed);
+  }
+
+  /** Walk stage: queues every new or changed file under the given one. */
+  private void walk(File docDir, File file) throws InterruptedException, IOException {
+    // do not try to index files that cannot be read
+    if (file.canRead()) {
+      if (file.isDirectory()) {
+        long t0 = System.nanoTime();
+        String[] names = file.list();
+        walkStats.add(0, System.nanoTime() - t0);
+        // an IO error could occur
+        if (names != null) {
+          for (String name : names) {
+            walk(docDir, new File(file, name));
+          }
+        }
+      } else {
+        long t0 = System.nanoTime();
+        String key = IndexFiles.keyOf(docDir, file);
+        // files of the shards that are not being written are skipped
+        ChangeManifest.Change change = writers.writerFor(key) != null ? manifest.check(key, file) : null;
+        walkStats.add(1, System.nanoTime() - t0);
+        if (change != null) {
+          files.put(new Record(file, key, change));
+        }
+      }
+    }
+  }
+
+  /** Read stage: queues every record of the dump. */
+  private void read(File dump) throws InterruptedException, IOException {
+    try (DumpReader records = new DumpReader(dump)) {
+      while (true) {
+        long t0 = System.nanoTime();
+        byte[] bytes = records.next();
+        if (bytes == null) {
+          return;
+        }
+        walkStats.add(1, System.nanoTime() - t0);
+        IndexFiles.READ_TIME.observeSince(t0);
+        files.put(new Record(bytes));
+      }
+    }
+  }
+
+  /** Parse stage: turns queued files and dump records into documents. */
+  private void parse() throws InterruptedException, IOException {
+    RecordParser parser = parsers.get();
+    while (true) {
+      Record record = files.take();
+      if (record == END_OF_FILES) {
+        return;
+      }
+      long t0 = System.nanoTime();
+      if (record.file != null) {
+        record.doc = IndexFiles.parseDocument(record.file, record.key, record.change, parser);
+      } else {
+        record.doc = IndexFiles.parseRecord(record.bytes, parser);
+        if (parser.identifier() != null) {
+          record.key = IndexFiles.keyOf(parser.identifier());
+        }
+      }
+      parseStats.add(1, System.nanoTime() - t0);
+      if (record.file != null ? record.doc != null : record.key != null) {
+        docs.put(record);
+      }
+    }
+  }
+
+  /** Write stage: adds queued documents to the index. */
+  private void write() throws InterruptedException, IOException {
+    while (true) {
+      Record record = docs.take();
+      if (record == END_OF_DOCS) {
+        return;
+      }
+      IndexWriter writer = writers.writerFor(record.key);
+      if (writer == null) {
+        continue;
+      }
+      long t0 = System.nanoTime();
+      if (record.file != null) {
+        IndexFiles.writeDocument(writer, record.key, record.doc);
+        record.change.indexed();
+      } else {
+        IndexFiles.writeRecord(writer, record.key, record.doc);
+      }
+      writeStats.add(1, System.nanoTime() - t0);
+    }
+  }
+
+  /**
+   * A file or dump record on its way through the pipeline, and its document
+   * once parsed. The key of a dump record is only known after parsing, and
+   * its document is <code>null</code> if the record was deleted.
+   */
+  private static final class Record {
+    final File file;
+    final ChangeManifest.Change change;
+    final byte[] bytes;
+    String key;
+    Document doc;
+
+    Record(File file, String key, ChangeManifest.Change change) {
+      this.file = file;
+      this.change = change;
+      this.bytes = null;
+      this.key = key;
+    }
+
+    Record(byte[] bytes) {
+      this.file = null;
+      this.change = null;
+      this.bytes = bytes;
+    }
+  }
+
+  /** Item count and busy time of one stage, summed over its threads. */
+  private static final class StageStats {
+    private final String name;
+    private final int threads;
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    StageStats(String name, int threads) {
+      this.name = name;
+      this.threads = threads;
+    }
+
+    void add(long count, long nanos) {
+      items.addAndGet(count);
+      busyNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Prints the observed rate over the whole run and the rate the stage could
+     * sustain if it never had to wait on the queues, which points at the
+     * bottleneck.
+     */
+    void print(long elapsedNanos) {
+      long n = items.get();
+      long busy = busyNanos.get();
+      double observed = n / (elapsedNanos / 1e9);
+      double capacity = busy == 0 ? Double.POSITIVE_INFINITY : n * threads / (busy / 1e9);
+      System.out.printf("%-5s %d docs, %.0f docs/sec observed, %.0f docs/sec busy (%d ms busy over %d threads)%n",
+          name, n, observed, capacity, busy / 1_000_000, threads);
+    }
+  }
+}
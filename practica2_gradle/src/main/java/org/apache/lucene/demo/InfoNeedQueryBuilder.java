@@ -0,0 +1,152 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Builds the query of a natural language information need from its tagged words.
+ * <p>
+ * Every noun, number, adjective, adverb and verb becomes a disjunction over
+ * the fields that suit its part of speech, and all of them are joined in a
+ * single flat disjunction. Words whose subqueries come out equal, such as a
+ * repeated word or two forms with the same stem, are added once with a boost
+ * equal to the number of occurrences, which scores the same as repeating the
+ * clause. The subquery of each word is cached across needs.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class InfoNeedQueryBuilder {
+
+  /** Default number of word subqueries kept in the cache. */
+  static final int DEFAULT_CACHE_SIZE = 10_000;
+
+  private static final String[] fields_N = {"titulo", "tipo", "descripcion", "autor", "departamento", "director"};
+  private static final String[] fields_ARV = {"titulo", "descripcion"};
+  private static final String[] fields_Z = {"titulo", "fecha", "descripcion"};
+
+  private final Map<String, QueryParser> parsers = new LinkedHashMap<>();
+  private final Map<String, BooleanQuery> cache;
+
+  InfoNeedQueryBuilder(Analyzer analyzer) {
+    this(analyzer, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * @param analyzer Analyzer of the index
+   * @param cacheSize Maximum number of word subqueries to cache
+   */
+  InfoNeedQueryBuilder(Analyzer analyzer, int cacheSize) {
+    for (String[] fields : new String[][] {fields_N, fields_ARV, fields_Z}) {
+      for (String field : fields) {
+        parsers.computeIfAbsent(field, f -> new QueryParser(f, analyzer));
+      }
+    }
+    this.cache = new LinkedHashMap<String, BooleanQuery>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, BooleanQuery> eldest) {
+        return size() > cacheSize;
+      }
+    };
+  }
+
+  /**
+   * Builds the query of a need. Words whose tag is not a noun, number,
+   * adjective, adverb or verb are ignored.
+   *
+   * @param words The words of the need, as written
+   * @param tags The part of speech tag of each word
+   * @return the query, or <code>null</code> if no word was added
+   * @throws ParseException If a word cannot be parsed
+   */
+  Query build(String[] words, String[] tags) throws ParseException {
+    // subqueries in order of appearance, and their number of occurrences
+    Map<Query, Integer> clauses = new LinkedHashMap<>();
+    for (int i = 0; i < words.length; i++) {
+      Query query = word(words[i], tags[i]);
+      if (query != null) {
+        clauses.merge(query, 1, Integer::sum);
+      }
+    }
+
+    if (clauses.isEmpty()) {
+      return null;
+    } else if (clauses.size() == 1) {
+      Map.Entry<Query, Integer> clause = clauses.entrySet().iterator().next();
+      return boost(clause.getKey(), clause.getValue());
+    }
+    BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    for (Map.Entry<Query, Integer> clause : clauses.entrySet()) {
+      builder.add(boost(clause.getKey(), clause.getValue()), BooleanClause.Occur.SHOULD);
+    }
+    return builder.build();
+  }
+
+  /** Returns the subquery of a word, or <code>null</code> if it is ignored or matches nothing. */
+  private Query word(String word, String tag) throws ParseException {
+    char type = tag.charAt(0);
+    String[] fields;
+    if (type == 'N') {
+      fields = fields_N;
+    } else if (type == 'Z') {
+      fields = fields_Z;
+    } else if (type == 'A' || type == 'R' || type == 'V') {
+      fields = fields_ARV;
+    } else {
+      return null;
+    }
+    word = word.replaceAll("[-+.^:,()*]", "");
+
+    String key = (fields == fields_ARV ? 'A' : type) + word;
+    BooleanQuery query = cache.get(key);
+    if (query == null) {
+      query = parse(word, fields);
+      cache.put(key, query);
+    }
+    // a stop word in every field matches nothing
+    return query.clauses().isEmpty() ? null : query;
+  }
+
+  private static Query boost(Query query, int occurrences) {
+    return occurrences == 1 ? query : new BoostQuery(query, occurrences);
+  }
+
+  /**
+   * Searches the word in every field, as
+   * {@link org.apache.lucene.queryparser.classic.MultiFieldQueryParser#parse(String, String[], BooleanClause.Occur[], Analyzer)}
+   * does, but reusing the parser of each field.
+   */
+  private BooleanQuery parse(String word, String[] fields) throws ParseException {
+    BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    for (String field : fields) {
+      Query q = parsers.get(field).parse(word);
+      if (q != null && (!(q instanceof BooleanQuery) || ((BooleanQuery) q).clauses().size() > 0)) {
+        builder.add(q, BooleanClause.Occur.SHOULD);
+      }
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,334 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Process-wide counters and latency histograms of indexing and search.
+ * <p>
+ * Recording is a {@link LongAdder} increment or, for a histogram, one more
+ * on a power of two bucket, so the metrics are always on. They are only
+ * written out when asked to with {@link #export}, as Prometheus text or,
+ * if the file name ends in <code>.json</code>, as JSON.
+ * <p>
+ * Metrics are created once, usually in a static field, and identified by
+ * their name and labels, e.g. <code>indexing_phase_seconds{phase="parse"}</code>.
+ */
+final class Metrics {
+
+  /** Metrics by name and labels, sorted so that the series of a family are written together. */
+  private static final Map<String, Metric> METRICS = new ConcurrentSkipListMap<>();
+  private static final Map<String, String> HELP = new ConcurrentHashMap<>();
+
+  private Metrics() {
+  }
+
+  private abstract static class Metric {
+    final String name;
+    /** Labels in Prometheus syntax, <code>{k="v",...}</code>, or empty. */
+    final String labels;
+
+    Metric(String name, String labels) {
+      this.name = name;
+      this.labels = labels;
+    }
+  }
+
+  /** A count that only goes up. */
+  static final class Counter extends Metric {
+    private final LongAdder value = new LongAdder();
+
+    private Counter(String name, String labels) {
+      super(name, labels);
+    }
+
+    void inc() {
+      value.increment();
+    }
+
+    void add(long n) {
+      value.add(n);
+    }
+
+    long get() {
+      return value.sum();
+    }
+  }
+
+  /**
+   * Distribution of durations. Bucket i counts the durations below
+   * 2<sup>i</sup> microseconds, up to about 35 minutes.
+   */
+  static final class Histogram extends Metric {
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    private Histogram(String name, String labels) {
+      super(name, labels);
+    }
+
+    /** Records the time elapsed since <code>startNanos</code>, a {@link System#nanoTime} value. */
+    void observeSince(long startNanos) {
+      observe(System.nanoTime() - startNanos);
+    }
+
+    void observe(long nanos) {
+      long micros = Math.max(0, nanos) / 1000;
+      int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+      buckets.incrementAndGet(bucket);
+      count.increment();
+      sumNanos.add(nanos);
+    }
+
+    long count() {
+      return count.sum();
+    }
+
+    long totalNanos() {
+      return sumNanos.sum();
+    }
+
+    /** Upper bound of bucket i, in seconds. */
+    private static double bound(int i) {
+      return (1L << i) / 1e6;
+    }
+
+    /** Returns the upper bound of the bucket that holds the given quantile, in seconds. */
+    double quantile(double q) {
+      long[] snapshot = snapshot();
+      long total = 0;
+      for (long n : snapshot) {
+        total += n;
+      }
+      long rank = (long) Math.ceil(q * total);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += snapshot[i];
+        if (seen >= rank && seen > 0) {
+          return bound(i);
+        }
+      }
+      return 0;
+    }
+
+    private long[] snapshot() {
+      long[] snapshot = new long[BUCKETS];
+      for (int i = 0; i < BUCKETS; i++) {
+        snapshot[i] = buckets.get(i);
+      }
+      return snapshot;
+    }
+  }
+
+  /**
+   * Returns the counter of the given name and labels, creating it if needed.
+   *
+   * @param labels Alternating label names and values
+   */
+  static Counter counter(String name, String help, String... labels) {
+    return (Counter) register(name, help, labels, Counter::new);
+  }
+
+  /**
+   * Returns the histogram of the given name and labels, creating it if needed.
+   *
+   * @param labels Alternating label names and values
+   */
+  static Histogram histogram(String name, String help, String... labels) {
+    return (Histogram) register(name, help, labels, Histogram::new);
+  }
+
+  private interface Factory {
+    Metric create(String name, String labels);
+  }
+
+  private static Metric register(String name, String help, String[] labels, Factory factory) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i + 1 < labels.length; i += 2) {
+      sb.append(sb.length() == 0 ? "{" : ",").append(labels[i]).append("=\"").append(labels[i + 1]).append('"');
+    }
+    String labelText = sb.length() == 0 ? "" : sb.append('}').toString();
+    HELP.putIfAbsent(name, help);
+    return METRICS.computeIfAbsent(name + labelText, k -> factory.create(name, labelText));
+  }
+
+  /**
+   * Writes the metrics to the given file when the JVM exits and, if
+   * <code>periodSeconds</code> is positive, every that many seconds until
+   * then. The file is replaced atomically, so readers never see half of it.
+   */
+  static void export(Path file, double periodSeconds) {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> write(file), "metrics-export"));
+    if (periodSeconds > 0) {
+      ScheduledExecutorService exporter = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "metrics-export");
+        t.setDaemon(true);
+        return t;
+      });
+      long periodMillis = (long) (periodSeconds * 1000);
+      exporter.scheduleWithFixedDelay(() -> write(file), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Writes the metrics to the file, reporting but not throwing errors. */
+  static synchronized void write(Path file) {
+    try {
+      String text = file.toString().endsWith(".json") ? json() : prometheus();
+      Path absolute = file.toAbsolutePath();
+      Path tmp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+      Files.write(tmp, text.getBytes(StandardCharsets.UTF_8));
+      Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      System.out.println(" caught a " + e.getClass() +
+              "\n with message: " + e.getMessage());
+    }
+  }
+
+  /** Returns the metrics in the Prometheus text exposition format. */
+  static String prometheus() {
+    StringWriter sw = new StringWriter();
+    PrintWriter out = new PrintWriter(sw);
+    String family = null;
+    for (Metric m : METRICS.values()) {
+      if (!m.name.equals(family)) {
+        family = m.name;
+        out.println("# HELP " + m.name + " " + HELP.get(m.name));
+        out.println("# TYPE " + m.name + " " + (m instanceof Counter ? "counter" : "histogram"));
+      }
+      if (m instanceof Counter) {
+        out.println(m.name + m.labels + " " + ((Counter) m).get());
+        continue;
+      }
+      Histogram h = (Histogram) m;
+      long[] buckets = h.snapshot();
+      long cumulative = 0;
+      String prefix = m.labels.isEmpty() ? "{" : m.labels.substring(0, m.labels.length() - 1) + ",";
+      for (int i = 0; i < buckets.length; i++) {
+        cumulative += buckets[i];
+        out.println(m.name + "_bucket" + prefix + "le=\"" + Histogram.bound(i) + "\"} " + cumulative);
+      }
+      out.println(m.name + "_bucket" + prefix + "le=\"+Inf\"} " + cumulative);
+      out.println(m.name + "_sum" + m.labels + " " + h.sumNanos.sum() / 1e9);
+      out.println(m.name + "_count" + m.labels + " " + cumulative);
+    }
+    out.flush();
+    return sw.toString();
+  }
+
+  /**
+   * Returns the metrics as a JSON array with one object per series;
+   * histograms carry their count, sum and the 50th, 90th and 99th
+   * percentiles, as bucket upper bounds in seconds.
+   */
+  static String json() {
+    StringBuilder sb = new StringBuilder("[\n");
+    boolean first = true;
+    for (Metric m : METRICS.values()) {
+      sb.append(first ? "" : ",\n").append("  {\"name\": \"").append(m.name).append('"');
+      first = false;
+      if (!m.labels.isEmpty()) {
+        // {k="v",...} is {"k":"v",...} once the label names are quoted
+        sb.append(", \"labels\": ").append(m.labels.replaceAll("([{,])(\\w+)=", "$1\"$2\": "));
+      }
+      if (m instanceof Counter) {
+        sb.append(", \"type\": \"counter\", \"value\": ").append(((Counter) m).get()).append('}');
+      } else {
+        Histogram h = (Histogram) m;
+        sb.append(String.format(Locale.ROOT,
+                ", \"type\": \"histogram\", \"count\": %d, \"sum\": %.6f, \"p50\": %s, \"p90\": %s, \"p99\": %s}",
+                h.count(), h.sumNanos.sum() / 1e9, h.quantile(0.5), h.quantile(0.9), h.quantile(0.99)));
+      }
+    }
+    return sb.append("\n]\n").toString();
+  }
+
+  /**
+   * Wraps an analyzer so that the time spent producing the tokens of every
+   * field value is recorded in the given histogram. The time is part of
+   * {@link org.apache.lucene.index.IndexWriter#addDocument}, which analyzes
+   * the document as it inverts it.
+   */
+  static Analyzer timed(Analyzer analyzer, Histogram histogram) {
+    return new AnalyzerWrapper(analyzer.getReuseStrategy()) {
+      @Override
+      protected Analyzer getWrappedAnalyzer(String fieldName) {
+        return analyzer;
+      }
+
+      @Override
+      protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+        return new TokenStreamComponents(components.getSource(),
+                new TimingFilter(components.getTokenStream(), histogram));
+      }
+    };
+  }
+
+  /** Sums the time of the tokens of a stream and records it when the stream ends. */
+  private static final class TimingFilter extends TokenFilter {
+    private final Histogram histogram;
+    private long nanos;
+
+    TimingFilter(TokenStream input, Histogram histogram) {
+      super(input);
+      this.histogram = histogram;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+      long t0 = System.nanoTime();
+      boolean more = input.incrementToken();
+      nanos += System.nanoTime() - t0;
+      return more;
+    }
+
+    @Override
+    public void reset() throws IOException {
+      super.reset();
+      nanos = 0;
+    }
+
+    @Override
+    public void end() throws IOException {
+      super.end();
+      histogram.observe(nanos);
+    }
+  }
+}
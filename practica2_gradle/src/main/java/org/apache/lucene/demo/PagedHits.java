@@ -0,0 +1,232 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsCollectorManager;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiCollectorManager;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.TotalHits;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/** Streams the hits of a query, in score order, with the path of their record.
+ * <p>
+ * The first page of hits comes from the same search that counts them, and
+ * further pages are fetched with search-after, so large result sets never
+ * need a priority queue as big as the result. Paths are read from the
+ * <code>path</code> doc values that {@link IndexFiles} writes, without
+ * loading stored fields; segments written before that fall back to the
+ * stored field.
+ * <p>
+ * Counting every hit means scoring every matching document. When only the
+ * top hits matter, a total hits threshold lets the search count up to it
+ * and then skip the blocks of documents that cannot make it into the top
+ * hits, and the total becomes a lower bound, see {@link #format}.
+ */
+final class PagedHits {
+
+  /** Number of hits fetched per search. */
+  static final int PAGE_SIZE = 1000;
+
+  private static final Set<String> PATH_FIELD = Collections.singleton("path");
+
+  /** Receives the hits of a query. */
+  interface Visitor {
+    /**
+     * Called once, before the first hit, with the number of hits, which is
+     * exact up to the total hits threshold of the search and a lower bound
+     * above it.
+     */
+    default void totalHits(TotalHits totalHits) throws IOException {
+    }
+
+    /**
+     * Called for every hit, best first.
+     *
+     * @param path The path of the record, or <code>null</code> if it has none
+     */
+    void hit(ScoreDoc hit, String path) throws IOException;
+
+    /** Returns whether the visitor counts facets, see {@link #facets}. */
+    default boolean wantsFacets() {
+      return false;
+    }
+
+    /**
+     * Called once, before {@link #totalHits}, with every hit of the query,
+     * collected by the same search as the first page, if the visitor wants
+     * facets. All the hits are then counted exactly.
+     */
+    default void facets(FacetsCollector hits) throws IOException {
+    }
+  }
+
+  private PagedHits() {
+  }
+
+  /**
+   * Runs the query, counting all its hits, and passes its top hits to the visitor.
+   *
+   * @param maxHits Maximum number of hits to visit
+   * @return the total number of hits, -1 if maxHits is 0
+   * @throws IOException If there is a low-level I/O error
+   */
+  static long search(IndexSearcher searcher, Query query, int maxHits, Visitor visitor) throws IOException {
+    TotalHits totalHits = search(searcher, query, maxHits, Integer.MAX_VALUE, visitor);
+    return totalHits == null ? -1 : totalHits.value;
+  }
+
+  /**
+   * Runs the query and passes its top hits to the visitor.
+   *
+   * @param maxHits Maximum number of hits to visit
+   * @param totalHitsThreshold Number of hits to count exactly, at least; a
+   *                           threshold not above maxHits skips the most
+   * @return the total number of hits, exact or a lower bound, or <code>null</code> if maxHits is 0
+   * @throws IOException If there is a low-level I/O error
+   */
+  static TotalHits search(IndexSearcher searcher, Query query, int maxHits, int totalHitsThreshold,
+                          Visitor visitor) throws IOException {
+    TotalHits totalHits = null;
+    int visited = 0;
+    ScoreDoc after = null;
+    while (visited < maxHits) {
+      int n = Math.min(PAGE_SIZE, maxHits - visited);
+      long t0 = System.nanoTime();
+      TopDocs page;
+      if (after == null && visitor.wantsFacets()) {
+        // facets visit every hit anyway, so they are all counted
+        Object[] results = searcher.search(query,
+                new MultiCollectorManager(manager(n, null, Integer.MAX_VALUE), new FacetsCollectorManager()));
+        page = (TopDocs) results[0];
+        visitor.facets((FacetsCollector) results[1]);
+      } else {
+        // only the first page has to count the hits
+        page = searcher.search(query, manager(n, after, after == null ? totalHitsThreshold : n));
+      }
+      SearchFiles.SEARCH_TIME.observeSince(t0);
+      if (totalHits == null) {
+        totalHits = page.totalHits;
+        SearchFiles.HITS.add(totalHits.value);
+        visitor.totalHits(totalHits);
+      }
+      ScoreDoc[] hits = page.scoreDocs;
+      t0 = System.nanoTime();
+      String[] paths = paths(searcher.getIndexReader(), hits);
+      SearchFiles.RESOLVE_TIME.observeSince(t0);
+      for (int i = 0; i < hits.length; i++) {
+        visitor.hit(hits[i], paths[i]);
+      }
+      visited += hits.length;
+      if (hits.length < n || (totalHits.relation == TotalHits.Relation.EQUAL_TO && visited >= totalHits.value)) {
+        break;
+      }
+      after = hits[hits.length - 1];
+    }
+    return totalHits;
+  }
+
+  /** Returns the number of hits as text, <code>"&ge;n"</code> if it is a lower bound. */
+  static String format(TotalHits totalHits) {
+    return (totalHits.relation == TotalHits.Relation.EQUAL_TO ? "" : "\u2265") + totalHits.value;
+  }
+
+  /**
+   * Returns the path of every hit, visiting the segments in order instead of
+   * seeking back and forth in score order.
+   *
+   * @throws IOException If there is a low-level I/O error
+   */
+  static String[] paths(IndexReader reader, ScoreDoc[] hits) throws IOException {
+    // sort the hits by doc id, remembering their rank in the low bits
+    long[] order = new long[hits.length];
+    for (int i = 0; i < hits.length; i++) {
+      order[i] = ((long) hits[i].doc << 32) | i;
+    }
+    Arrays.sort(order);
+
+    String[] paths = new String[hits.length];
+    List<LeafReaderContext> leaves = reader.leaves();
+    LeafReaderContext leaf = null;
+    SortedDocValues values = null;
+    for (long o : order) {
+      int doc = (int) (o >>> 32);
+      int rank = (int) o;
+      if (leaf == null || doc >= leaf.docBase + leaf.reader().maxDoc()) {
+        leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+        values = pathValues(leaf.reader());
+      }
+      if (values == null) {
+        paths[rank] = reader.document(doc, PATH_FIELD).get("path");
+      } else if (values.advanceExact(doc - leaf.docBase)) {
+        paths[rank] = values.lookupOrd(values.ordValue()).utf8ToString();
+      }
+    }
+    return paths;
+  }
+
+  /** Returns the path doc values of the segment, or <code>null</code> if it was indexed without them. */
+  private static SortedDocValues pathValues(LeafReader reader) throws IOException {
+    FieldInfo info = reader.getFieldInfos().fieldInfo("path");
+    if (info == null || info.getDocValuesType() != DocValuesType.SORTED) {
+      return null;
+    }
+    return reader.getSortedDocValues("path");
+  }
+
+  /**
+   * Collects the top n hits after the given one, in parallel over the
+   * segments when the searcher has an executor.
+   */
+  private static CollectorManager<TopScoreDocCollector, TopDocs> manager(int n, ScoreDoc after, int totalHitsThreshold) {
+    return new CollectorManager<TopScoreDocCollector, TopDocs>() {
+      @Override
+      public TopScoreDocCollector newCollector() {
+        return TopScoreDocCollector.create(n, after, totalHitsThreshold);
+      }
+
+      @Override
+      public TopDocs reduce(Collection<TopScoreDocCollector> collectors) {
+        TopDocs[] topDocs = new TopDocs[collectors.size()];
+        int i = 0;
+        for (TopScoreDocCollector collector : collectors) {
+          topDocs[i++] = collector.topDocs();
+        }
+        return TopDocs.merge(0, n, topDocs, true);
+      }
+    };
+  }
+}
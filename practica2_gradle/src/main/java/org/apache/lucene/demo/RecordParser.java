@@ -0,0 +1,347 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.DoubleRange;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Streaming extractor that fills a Lucene {@link Document} from a Dublin Core record.
+ * <p>
+ * The record is read once with StAX and every element is looked up in a
+ * table that maps it to its Lucene field, instead of building a DOM tree
+ * and walking it once per field. It understands the <code>recordsdc</code>
+ * records (<code>oai_dc:dc</code>) as well as the geographic
+ * <code>dublinCore</code> ones (<code>csw:Record</code>) and their
+ * <code>ows:BoundingBox</code>. When the record comes wrapped in an OAI-PMH
+ * <code>&lt;record&gt;</code> the identifier and status of its header are
+ * read too, see {@link #identifier()} and {@link #deleted()}.
+ * <p>
+ * Instances are not thread safe, every indexing thread creates its own.
+ */
+final class RecordParser {
+
+  /** How the text of an element is turned into a field. */
+  private enum Kind {
+    /** Analyzed, and stored as {@link FieldStorage} says. */
+    TEXT,
+    /** Indexed verbatim, and as a number, see {@link DateFields}. */
+    DC_DATE,
+    /** Like {@link #DC_DATE}, but the terms have the dashes of the date removed. */
+    DATE,
+    /** <code>ows:BoundingBox</code>, indexed as west/south/east/north points and as a bbox range. */
+    BOUNDING_BOX,
+    /** Lower or upper corner of the enclosing bounding box. */
+    LOWER_CORNER,
+    UPPER_CORNER,
+    /** OAI-PMH <code>header</code>, whose status tells if the record was deleted. */
+    OAI_HEADER,
+    /** OAI-PMH <code>identifier</code> of the header. */
+    OAI_IDENTIFIER
+  }
+
+  /** Maps an element to its Lucene field. */
+  private static final class Mapping {
+    final String prefix;
+    final String field;
+    final Kind kind;
+    /** Mapping of another element with the same local name. */
+    final Mapping next;
+
+    Mapping(String prefix, String field, Kind kind, Mapping next) {
+      this.prefix = prefix;
+      this.field = field;
+      this.kind = kind;
+      this.next = next;
+    }
+  }
+
+  /** Element local name to mappings; the prefix is checked on lookup. */
+  private static final Map<String, Mapping> MAPPINGS = new HashMap<>();
+
+  static {
+    map("dc", "title", "titulo", Kind.TEXT);
+    map("dc", "type", "tipo", Kind.TEXT);
+    map("dc", "date", "fecha", Kind.DC_DATE);
+    map("dc", "description", "descripcion", Kind.TEXT);
+    map("dc", "creator", "autor", Kind.TEXT);
+    map("dc", "publisher", "departamento", Kind.TEXT);
+    map("dc", "contributor", "director", Kind.TEXT);
+    map("dcterms", "issued", "issued", Kind.DATE);
+    map("dcterms", "created", "created", Kind.DATE);
+    map("ows", "BoundingBox", null, Kind.BOUNDING_BOX);
+    map("ows", "LowerCorner", null, Kind.LOWER_CORNER);
+    map("ows", "UpperCorner", null, Kind.UPPER_CORNER);
+    map("", "header", null, Kind.OAI_HEADER);
+    map("", "identifier", null, Kind.OAI_IDENTIFIER);
+  }
+
+  private static void map(String prefix, String localName, String field, Kind kind) {
+    MAPPINGS.put(localName, new Mapping(prefix, field, kind, MAPPINGS.get(localName)));
+  }
+
+  private static Mapping lookup(XMLStreamReader reader) {
+    String prefix = reader.getPrefix();
+    if (prefix == null) {
+      prefix = "";
+    }
+    Mapping m = MAPPINGS.get(reader.getLocalName());
+    while (m != null && !m.prefix.equals(prefix)) {
+      m = m.next;
+    }
+    return m;
+  }
+
+  private final XMLInputFactory factory;
+  private final StringBuilder text = new StringBuilder();
+
+  // corners of the bounding box being read, NaN while not seen
+  private final double[] lower = new double[2];
+  private final double[] upper = new double[2];
+
+  private final FieldStorage storage;
+  // whether the highlighted fields index offsets, see Snippets
+  private final boolean offsets;
+
+  // OAI-PMH header of the last record
+  private String identifier;
+  private boolean deleted;
+
+  /**
+   * @param storage Storage of the fields of the records
+   * @param offsets Whether the fields highlighted by {@link Snippets} index offsets
+   */
+  RecordParser(FieldStorage storage, boolean offsets) {
+    this.storage = storage;
+    this.offsets = offsets;
+    factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+
+  /**
+   * Reads a whole XML record and adds its fields to the document.
+   *
+   * @param in The record
+   * @param doc The document to fill
+   * @throws XMLStreamException If the record is not well formed, or a corner
+   *         of its bounding box is not a pair of numbers
+   */
+  void parse(InputStream in, Document doc) throws XMLStreamException {
+    identifier = null;
+    deleted = false;
+    XMLStreamReader reader = factory.createXMLStreamReader(in);
+    try {
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          startElement(reader, doc);
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          endElement(reader, doc);
+        }
+      }
+    } catch (XMLStreamException e) {
+      // do not let a broken record be mistaken for a deletion
+      identifier = null;
+      throw e;
+    } catch (NumberFormatException e) {
+      identifier = null;
+      throw new XMLStreamException("malformed corner: " + e.getMessage(), reader.getLocation(), e);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** Returns the storage of the fields of the records. */
+  FieldStorage storage() {
+    return storage;
+  }
+
+  /**
+   * Returns the OAI-PMH identifier of the last record parsed, or
+   * <code>null</code> if it had no OAI-PMH header.
+   */
+  String identifier() {
+    return identifier;
+  }
+
+  /** Returns whether the OAI-PMH header of the last record parsed marks it as deleted. */
+  boolean deleted() {
+    return deleted;
+  }
+
+  /** Handles the element the reader is positioned on. */
+  private void startElement(XMLStreamReader reader, Document doc) throws XMLStreamException {
+    Mapping m = lookup(reader);
+    if (m == null) {
+      return;
+    }
+    switch (m.kind) {
+      case TEXT:
+        if (offsets && Snippets.isHighlighted(m.field)) {
+          doc.add(Snippets.field(m.field, readText(reader), storage.of(m.field)));
+        } else {
+          doc.add(new TextField(m.field, readText(reader), storage.of(m.field)));
+        }
+        break;
+      case DC_DATE: {
+        String date = readText(reader);
+        doc.add(new StringField(m.field, date, storage.of(m.field)));
+        DateFields.add(doc, m.field, date);
+        break;
+      }
+      case DATE: {
+        String date = readText(reader);
+        doc.add(new StringField(m.field, date.replace("-", ""), storage.of(m.field)));
+        DateFields.add(doc, m.field, date);
+        break;
+      }
+      case BOUNDING_BOX:
+        lower[0] = lower[1] = upper[0] = upper[1] = Double.NaN;
+        break;
+      case LOWER_CORNER:
+        parseCorner(readText(reader), lower);
+        break;
+      case UPPER_CORNER:
+        parseCorner(readText(reader), upper);
+        break;
+      case OAI_HEADER:
+        deleted = "deleted".equals(reader.getAttributeValue(null, "status"));
+        break;
+      case OAI_IDENTIFIER:
+        identifier = readText(reader).trim();
+        break;
+    }
+  }
+
+  /** Adds the bounding box once all of it has been read. */
+  private void endElement(XMLStreamReader reader, Document doc) {
+    Mapping m = lookup(reader);
+    if (m != null && m.kind == Kind.BOUNDING_BOX) {
+      addBoundingBox(doc);
+    }
+  }
+
+  /**
+   * Returns the text of the current element and its children, leaving the
+   * reader on its end tag.
+   */
+  private String readText(XMLStreamReader reader) throws XMLStreamException {
+    text.setLength(0);
+    int depth = 1;
+    while (depth > 0) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          depth--;
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+          break;
+        case XMLStreamConstants.ENTITY_REFERENCE:
+          text.append(reader.getText());
+          break;
+        default:
+          break;
+      }
+    }
+    return text.toString();
+  }
+
+  /** Parses "x y" into the given array. */
+  private static void parseCorner(String corner, double[] xy) {
+    String s = corner.trim();
+    int space = 0;
+    while (space < s.length() && !Character.isWhitespace(s.charAt(space))) {
+      space++;
+    }
+    xy[0] = Double.parseDouble(s.substring(0, space));
+    xy[1] = Double.parseDouble(s.substring(space).trim());
+  }
+
+  private void addBoundingBox(Document doc) {
+    if (Double.isNaN(lower[1]) || Double.isNaN(upper[1])) {
+      return;
+    }
+    addBoundingBox(doc, lower[0], lower[1], upper[0], upper[1]);
+  }
+
+  /** Indexes a bounding box both as four points and as a 2D range. */
+  static void addBoundingBox(Document doc, double west, double south, double east, double north) {
+    //Xmin Ymin
+    doc.add(new DoublePoint("west", west));
+    doc.add(new DoublePoint("south", south));
+    //Xmax Ymax
+    doc.add(new DoublePoint("east", east));
+    doc.add(new DoublePoint("north", north));
+    // The whole box as a single 2D range, so that intersection is
+    // answered by one BKD traversal:
+    if (west <= east && south <= north) {
+      doc.add(new DoubleRange("bbox", new double[] {west, south}, new double[] {east, north}));
+    } else {
+      doc.add(invertedBox("bbox", west, south, east, north));
+    }
+  }
+
+  /** Points of a 2D {@link DoubleRange}: the two minimums followed by the two maximums. */
+  private static final FieldType RANGE_2D = new FieldType();
+
+  static {
+    RANGE_2D.setDimensions(4, Double.BYTES);
+    RANGE_2D.freeze();
+  }
+
+  /**
+   * Encodes a box whose minimum exceeds its maximum, such as one crossing
+   * the antimeridian, as {@link DoubleRange} would if it allowed it. The
+   * intersects query of a range checks min &lt;= query max and max &gt;=
+   * query min in every dimension, which is exactly what the four point
+   * ranges of {@link SearchFiles#spatialRangesQuery} check, so such boxes
+   * match the same queries with both. Two ranges split at the antimeridian
+   * would match boxes that overlap only one of their sides instead.
+   */
+  static Field invertedBox(String field, double west, double south, double east, double north) {
+    byte[] bytes = new byte[4 * Double.BYTES];
+    double[] values = {west, south, east, north};
+    for (int i = 0; i < values.length; i++) {
+      NumericUtils.longToSortableBytes(NumericUtils.doubleToSortableLong(values[i]), bytes, i * Double.BYTES);
+    }
+    return new Field(field, new BytesRef(bytes), RANGE_2D);
+  }
+}
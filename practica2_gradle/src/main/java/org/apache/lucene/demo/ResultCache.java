@@ -0,0 +1,241 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TotalHits;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/** Hits of recent queries, so that a repeated query is answered without searching.
+ * <p>
+ * The key of a result is the query as built, after tagging and analysis, so
+ * differently written queries that analyze the same share it, and the
+ * reader it ran on, or the readers of its shards for a sharded index, whose
+ * {@link org.apache.lucene.index.MultiReader} has no key of its own. A
+ * reopened index or shard is a new reader, so results never outlive the
+ * index they were computed on, and those of a reader are dropped when it is
+ * closed. The cache is bounded by the estimated memory
+ * of the results it holds, and evicts the least recently used first.
+ * Searches that count facets are not cached, and a cache of size 0 caches
+ * nothing.
+ */
+final class ResultCache {
+
+  static final Metrics.Counter CACHE_HITS =
+          Metrics.counter("search_result_cache_total", "Lookups of the result cache.", "result", "hit");
+  static final Metrics.Counter CACHE_MISSES =
+          Metrics.counter("search_result_cache_total", "Lookups of the result cache.", "result", "miss");
+
+  /** Results larger than this fraction of the cache are not cached, they would evict too much. */
+  private static final int MAX_ENTRY_FRACTION = 4;
+
+  private static final class Key {
+    /** Keys of the reader, or of the readers of the shards. */
+    final List<IndexReader.CacheKey> readers;
+    final Query query;
+    final int maxHits;
+    final int totalHitsThreshold;
+    final int hash;
+
+    Key(List<IndexReader.CacheKey> readers, Query query, int maxHits, int totalHitsThreshold) {
+      this.readers = readers;
+      this.query = query;
+      this.maxHits = maxHits;
+      this.totalHitsThreshold = totalHitsThreshold;
+      this.hash = Objects.hash(readers, query, maxHits, totalHitsThreshold);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      // cache keys are compared by identity
+      return readers.equals(other.readers) && maxHits == other.maxHits
+              && totalHitsThreshold == other.totalHitsThreshold && query.equals(other.query);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /** The hits of a query, as the visitor saw them. */
+  private static final class Result {
+    final TotalHits totalHits;
+    final ScoreDoc[] hits;
+    final String[] paths;
+    final long bytes;
+
+    Result(TotalHits totalHits, List<ScoreDoc> hits, List<String> paths) {
+      this.totalHits = totalHits;
+      this.hits = hits.toArray(new ScoreDoc[0]);
+      this.paths = paths.toArray(new String[0]);
+      long bytes = 128;
+      for (String path : this.paths) {
+        // the hit, its slot and the path with its chars
+        bytes += 32 + 8 + (path == null ? 0 : 48 + 2L * path.length());
+      }
+      this.bytes = bytes;
+    }
+  }
+
+  private final long maxBytes;
+  private final Map<Key, Result> results = new LinkedHashMap<>(16, 0.75f, true);
+  /** Readers whose close drops their results. */
+  private final Set<IndexReader.CacheKey> readers = new HashSet<>();
+  private long bytes;
+
+  /** @param maxBytes Maximum estimated memory of the cached results */
+  ResultCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Same as {@link PagedHits#search(IndexSearcher, Query, int, int, PagedHits.Visitor)},
+   * but the visitor gets the hits of the cache if the query ran before on
+   * the same reader.
+   *
+   * @throws IOException If there is a low-level I/O error
+   */
+  TotalHits search(IndexSearcher searcher, Query query, int maxHits, int totalHitsThreshold,
+                   PagedHits.Visitor visitor) throws IOException {
+    List<IndexReader.CacheHelper> helpers = maxBytes == 0 ? null : helpers(searcher.getIndexReader());
+    if (helpers == null || visitor.wantsFacets()) {
+      return PagedHits.search(searcher, query, maxHits, totalHitsThreshold, visitor);
+    }
+    List<IndexReader.CacheKey> readers = new ArrayList<>(helpers.size());
+    for (IndexReader.CacheHelper helper : helpers) {
+      readers.add(helper.getKey());
+    }
+    Key key = new Key(readers, query, maxHits, totalHitsThreshold);
+    Result result;
+    synchronized (this) {
+      result = results.get(key);
+    }
+    if (result != null) {
+      CACHE_HITS.inc();
+      SearchFiles.HITS.add(result.totalHits.value);
+      visitor.totalHits(result.totalHits);
+      for (int i = 0; i < result.hits.length; i++) {
+        visitor.hit(result.hits[i], result.paths[i]);
+      }
+      return result.totalHits;
+    }
+
+    CACHE_MISSES.inc();
+    List<ScoreDoc> hits = new ArrayList<>();
+    List<String> paths = new ArrayList<>();
+    TotalHits totalHits = PagedHits.search(searcher, query, maxHits, totalHitsThreshold, new PagedHits.Visitor() {
+      @Override
+      public void totalHits(TotalHits totalHits) throws IOException {
+        visitor.totalHits(totalHits);
+      }
+
+      @Override
+      public void hit(ScoreDoc hit, String path) throws IOException {
+        hits.add(hit);
+        paths.add(path);
+        visitor.hit(hit, path);
+      }
+    });
+    if (totalHits != null) {
+      put(helpers, key, new Result(totalHits, hits, paths));
+    }
+    return totalHits;
+  }
+
+  /**
+   * Returns the cache helper of the reader, or those of its shards, or
+   * <code>null</code> if they have none and the reader cannot be cached.
+   */
+  private static List<IndexReader.CacheHelper> helpers(IndexReader reader) {
+    IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+    if (helper != null) {
+      return Collections.singletonList(helper);
+    }
+    List<IndexReaderContext> shards = reader.getContext().children();
+    if (shards == null) {
+      return null;
+    }
+    List<IndexReader.CacheHelper> helpers = new ArrayList<>(shards.size());
+    for (IndexReaderContext shard : shards) {
+      helper = shard.reader().getReaderCacheHelper();
+      if (helper == null) {
+        return null;
+      }
+      helpers.add(helper);
+    }
+    return helpers;
+  }
+
+  private synchronized void put(List<IndexReader.CacheHelper> helpers, Key key, Result result) {
+    if (result.bytes > maxBytes / MAX_ENTRY_FRACTION) {
+      return;
+    }
+    for (IndexReader.CacheHelper helper : helpers) {
+      if (readers.add(helper.getKey())) {
+        helper.addClosedListener(this::clear);
+      }
+    }
+    Result previous = results.put(key, result);
+    bytes += result.bytes - (previous == null ? 0 : previous.bytes);
+    Iterator<Result> eldest = results.values().iterator();
+    while (bytes > maxBytes) {
+      bytes -= eldest.next().bytes;
+      eldest.remove();
+    }
+  }
+
+  /** Drops the results of a reader that was closed. */
+  private synchronized void clear(IndexReader.CacheKey reader) {
+    readers.remove(reader);
+    Iterator<Map.Entry<Key, Result>> it = results.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Key, Result> entry = it.next();
+      if (entry.getKey().readers.contains(reader)) {
+        bytes -= entry.getValue().bytes;
+        it.remove();
+      }
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    long h = CACHE_HITS.get(), m = CACHE_MISSES.get();
+    return "result cache: " + h + " hits, " + m + " misses"
+            + (h + m > 0 ? String.format(" (%.1f%% hits)", 100.0 * h / (h + m)) : "")
+            + ", " + results.size() + " results in " + (bytes + 1023) / 1024 + " of " + maxBytes / 1024 + " KB";
+  }
+}
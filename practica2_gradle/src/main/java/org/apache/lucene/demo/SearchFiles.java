@@ -19,43 +19,56 @@ package org.apache.lucene.demo;
 
 import java.io.*;
 import java.nio.file.Paths;
-import java.util.Arrays;
-import java.util.Date;
-
-import opennlp.tools.cmdline.postag.POSModelLoader;
-import opennlp.tools.postag.POSModel;
-import opennlp.tools.postag.POSSample;
-import opennlp.tools.postag.POSTaggerME;
-import opennlp.tools.sentdetect.SentenceModel;
-import opennlp.tools.tokenize.WhitespaceTokenizer;
-import opennlp.tools.util.ObjectStream;
-import opennlp.tools.util.PlainTextByLineStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.es.SpanishAnalyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.DoublePoint;
-import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.document.DoubleRange;
+import org.apache.lucene.facet.FacetsCollector;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
-import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
-import org.apache.lucene.store.FSDirectory;
-import opennlp.tools.postag.POSTagger;
-import opennlp.tools.namefind.DocumentNameFinder;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
-import javax.sound.midi.SysexMessage;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
 /** Simple command-line based search demo. */
 public class SearchFiles {
 
+  /** Spanish part of speech model used to parse information needs. */
+  static final String POS_MODEL = "opennlp-es-pos-maxent-pos-es.model";
+
+  /** Default field of the queries in query files. */
+  static final String DEFAULT_FIELD = "contents";
+
+  // Time of each phase of a query, see -metrics
+  static final Metrics.Histogram TAG_TIME = phase("tag");
+  static final Metrics.Histogram BUILD_TIME = phase("build");
+  static final Metrics.Histogram SEARCH_TIME = phase("search");
+  /** Reading the paths of the hits. */
+  static final Metrics.Histogram RESOLVE_TIME = phase("resolve");
+  static final Metrics.Histogram QUERY_TIME =
+          Metrics.histogram("search_query_seconds", "Time to answer a query, from its text to its last hit.");
+  static final Metrics.Counter QUERIES = Metrics.counter("search_queries_total", "Queries answered.");
+  static final Metrics.Counter HITS = Metrics.counter("search_hits_total", "Documents matched by the queries.");
+  static final Metrics.Counter ERRORS = Metrics.counter("search_errors_total", "Queries that failed.");
+
+  private static Metrics.Histogram phase(String phase) {
+    return Metrics.histogram("search_phase_seconds", "Time spent in each phase of a query.", "phase", phase);
+  }
+
   private SearchFiles() {
   }
 
@@ -64,7 +77,32 @@ public class SearchFiles {
    */
   public static void main(String[] args) throws Exception {
     String usage =
-            "Usage:\tSearchFiles -index <indexPath> -query <queryFile> -output <resultsFile>;";
+            "Usage:\tSearchFiles -index <indexPath> -infoNeeds <queryFile> -output <resultsFile>"
+            + " [-threads <n>] [-searchThreads <n>] [-metrics <file>]"
+            + " [-directory fs|mmap|preload|ram] [-warmup <queryFile>] [-k <n> [-exactCounts]]"
+            + " [-facets <n>] [-resultCacheMB <mb>] [-filterCacheMB <mb>] [-constraints score|filter]"
+            + " [-snippets <n>];\n\n"
+            + "-threads runs n queries at a time, -searchThreads searches the segments of the\n"
+            + "index in parallel within each query. Results keep the order of the query file.\n"
+            + "-metrics writes query latency histograms and counts to a Prometheus text file\n"
+            + "(JSON if its name ends in .json) on exit.\n"
+            + "-directory opens the index from disk (fs, the default), memory mapped with its\n"
+            + "hot files (mmap) or all of it (preload) loaded, or copied to the heap (ram).\n"
+            + "-warmup runs the queries of a sample query file before the measured ones.\n"
+            + "-k returns only the top n hits of every query, skipping the documents that cannot\n"
+            + "make it; hit counts above n are then lower bounds, printed as \u2265count, unless\n"
+            + "-exactCounts is given. Without -k every hit is returned and counted.\n"
+            + "-facets prints the n types, departments, years, authors and directors with the\n"
+            + "most hits of every query, counted from all its hits. -resultCacheMB keeps the\n"
+            + "hits of up to that many MB of queries, so repeated ones are not searched again.\n"
+            + "-filterCacheMB keeps up to that many MB, 32 by default, of the documents matched\n"
+            + "by the spatial and date constraints that repeat across queries.\n"
+            + "Required dates are filters, which do not score. -constraints filter makes a\n"
+            + "spatial box followed by text a filter too, so every hit must be in the box; by\n"
+            + "default the box and the text are alternatives that score, as any other clause.\n"
+            + "-snippets prints the best passages of the titulo and descripcion of the top n\n"
+            + "hits of every query, with the query terms in <b>, from the offsets indexed by\n"
+            + "IndexFiles -offsets. The time to highlight them is not part of the query's.";
     if (args.length > 0 && ("-h".equals(args[0]) || "-help".equals(args[0]))) {
       System.out.println(usage);
       System.exit(0);
@@ -74,7 +112,19 @@ public class SearchFiles {
     String output = null;
     String infoNeeds = null;
 
-    String field = "contents";
+    String field = DEFAULT_FIELD;
+    int threads = 1;
+    int searchThreads = 1;
+    String metrics = null;
+    String directory = "fs";
+    String warmup = null;
+    int k = 0;
+    boolean exactCounts = false;
+    int facetCount = 0;
+    double resultCacheMB = 0;
+    double filterCacheMB = FilterCache.DEFAULT_MB;
+    boolean filters = false;
+    int snippetCount = 0;
 
     for (int i = 0; i < args.length; i++) {
       if ("-index".equals(args[i])) {
@@ -86,17 +136,94 @@ public class SearchFiles {
       } else if ("-output".equals(args[i])) {
         output = args[i + 1];
         i++;
+      } else if ("-threads".equals(args[i])) {
+        threads = Integer.parseInt(args[i + 1]);
+        i++;
+      } else if ("-searchThreads".equals(args[i])) {
+        searchThreads = Integer.parseInt(args[i + 1]);
+        i++;
+      } else if ("-metrics".equals(args[i])) {
+        metrics = args[i + 1];
+        i++;
+      } else if ("-directory".equals(args[i])) {
+        directory = args[i + 1];
+        i++;
+      } else if ("-warmup".equals(args[i])) {
+        warmup = args[i + 1];
+        i++;
+      } else if ("-k".equals(args[i])) {
+        k = Integer.parseInt(args[i + 1]);
+        i++;
+      } else if ("-exactCounts".equals(args[i])) {
+        exactCounts = true;
+      } else if ("-facets".equals(args[i])) {
+        facetCount = Integer.parseInt(args[i + 1]);
+        i++;
+      } else if ("-resultCacheMB".equals(args[i])) {
+        resultCacheMB = Double.parseDouble(args[i + 1]);
+        i++;
+      } else if ("-filterCacheMB".equals(args[i])) {
+        filterCacheMB = Double.parseDouble(args[i + 1]);
+        i++;
+      } else if ("-constraints".equals(args[i])) {
+        filters = "filter".equals(args[i + 1]);
+        i++;
+      } else if ("-snippets".equals(args[i])) {
+        snippetCount = Integer.parseInt(args[i + 1]);
+        i++;
       }
     }
 
-    IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(index)));
-    IndexSearcher searcher = new IndexSearcher(reader);
+    if (k < 0) {
+      System.err.println("Usage: " + usage);
+      System.exit(1);
+    }
+    int maxHits = k > 0 ? k : Integer.MAX_VALUE;
+    // counting stops at the threshold, after which non-competitive hits are skipped
+    int totalHitsThreshold = exactCounts ? Integer.MAX_VALUE : maxHits;
+
+    if (metrics != null) {
+      Metrics.export(Paths.get(metrics), 0);
+    }
+
+    // information needs are tagged, so the model loads while the index opens
+    TaggingService tagger = infoNeeds != null && infoNeeds.endsWith("xml")
+            ? new TaggingService(new File(POS_MODEL)).preload() : null;
+
+    ExecutorService searchPool = searchThreads > 1 ? Executors.newFixedThreadPool(searchThreads) : null;
+    // a sharded index is opened as one reader over all its shards, see Shards
+    IndexReader reader = Shards.openReader(Paths.get(index), directory);
+    // with an executor every query searches the segments, of all the shards, in parallel
+    IndexSearcher searcher = new IndexSearcher(reader, searchPool);
     PrintWriter out = new PrintWriter(output, "UTF-8");
 
     Similarity classic = new ClassicSimilarity();
     searcher.setSimilarity(classic);
+    FilterCache filterCache = new FilterCache((long) (filterCacheMB * 1024 * 1024));
+    filterCache.configure(searcher);
+
+    FacetFields facets = facetCount > 0 ? new FacetFields(reader) : null;
+    int topFacets = facetCount;
+    ResultCache results = new ResultCache((long) (resultCacheMB * 1024 * 1024));
+    // queries analyze every field as the index did
+    FieldAnalyzers fieldAnalyzers = FieldAnalyzers.read(Paths.get(index));
+
+    if (warmup != null) {
+      long start = System.nanoTime();
+      Warmer warmer = Warmer.load(Paths.get(warmup), fieldAnalyzers.wrap(new SpanishAnalyzer2()), tagger);
+      warmer.warm(searcher);
+      System.out.println("Warmed up with " + warmer.size() + " queries in "
+              + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
 
-    Analyzer analyzer = new SpanishAnalyzer2();
+    // query parsers and builders are not thread safe, so every thread
+    // that runs queries gets its own, and its own analyzer
+    ThreadLocal<Analyzer> analyzers = ThreadLocal.withInitial(() -> fieldAnalyzers.wrap(new SpanishAnalyzer2()));
+    // only the offsets of the index are used, not the analyzer
+    Snippets snippets = snippetCount > 0
+            ? new Snippets(searcher, fieldAnalyzers.wrap(new SpanishAnalyzer2())) : null;
+    final int snippetHits = snippetCount;
+    List<Callable<Answer>> queries = new ArrayList<>();
 
     //File extension is .xml
     if (infoNeeds.substring(infoNeeds.length() - 3, infoNeeds.length()).equals("xml")) {
@@ -109,8 +236,7 @@ public class SearchFiles {
       doc.getDocumentElement().normalize();
       NodeList infoList = doc.getElementsByTagName("informationNeed");
 
-      POSModel model = new POSModelLoader().load(new File("opennlp-es-pos-maxent-pos-es.model"));
-      POSTaggerME tagger = new POSTaggerME(model);
+      ThreadLocal<InfoNeedQueryBuilder> builders = ThreadLocal.withInitial(() -> new InfoNeedQueryBuilder(analyzers.get()));
 
       for (int i = 0; i < infoList.getLength(); i++) {
 
@@ -125,87 +251,40 @@ public class SearchFiles {
           String id =  e.getElementsByTagName("identifier").item(0).getTextContent();
           String text =  e.getElementsByTagName("text").item(0).getTextContent();
 
-          WhitespaceTokenizer whitespaceTokenizer= WhitespaceTokenizer.INSTANCE;
-          String[] tokens = whitespaceTokenizer.tokenize(text);
-          String[] tags = tagger.tag(tokens);
-          //System.out.println("Tokens: " + Arrays.toString(tokens));
-          //System.out.println("Tagger: " + Arrays.toString(tags));
-
-          POSSample tagged_text = new POSSample(tokens, tags);
-          String query_text = tagged_text.toString();
-          //System.out.println("Tagged text: " + query_text);
-
-          String[] fields_N = {"titulo", "tipo", "descripcion", "autor", "departamento", "director"};
-          String[] fields_ARV = {"titulo", "descripcion"};
-          String[] fields_Z = {"titulo", "fecha", "descripcion"};
-
-          BooleanClause.Occur[] flags_N = {BooleanClause.Occur.SHOULD , BooleanClause.Occur.SHOULD , BooleanClause.Occur.SHOULD,
-                  BooleanClause.Occur.SHOULD , BooleanClause.Occur.SHOULD , BooleanClause.Occur.SHOULD};
-          BooleanClause.Occur[] flags_ARV = {BooleanClause.Occur.SHOULD , BooleanClause.Occur.SHOULD};
-          BooleanClause.Occur[] flags_Z = {BooleanClause.Occur.SHOULD , BooleanClause.Occur.SHOULD , BooleanClause.Occur.SHOULD};
-
-          Query query = null, final_query = null;
-          TopDocs results;
-          ScoreDoc[] hits;
-          int numTotalHits = 0;
-
-          for (String word : query_text.split("\\s+")) {
-            String type = word.substring(word.indexOf("_") + 1, word.length());
-            word = word.substring(0, word.indexOf("_")).replaceAll("[-+.^:,()*]","");;
-
-            if (type.charAt(0) == 'N' ) {
-              query = MultiFieldQueryParser.parse (word, fields_N , flags_N , analyzer );
-              if (final_query == null) final_query = query;
-              else final_query = new BooleanQuery.Builder()
-                      .add(query ,BooleanClause.Occur.SHOULD )
-                      .add(final_query, BooleanClause.Occur.SHOULD ).build();
-
-            } else if (type.charAt(0) == 'Z' ) {
-              query = MultiFieldQueryParser.parse (word, fields_Z , flags_Z , analyzer );
-              if (final_query == null) final_query = query;
-              else final_query = new BooleanQuery.Builder()
-                      .add(query ,BooleanClause.Occur.SHOULD )
-                      .add(final_query, BooleanClause.Occur.SHOULD ).build();
-
-            } else if (type.charAt(0) == 'A' || type.charAt(0) == 'R' || type.charAt(0) == 'V') {
-              query = MultiFieldQueryParser.parse(word, fields_ARV , flags_ARV , analyzer );
-              if (final_query == null) final_query = query;
-              else final_query = new BooleanQuery.Builder()
-                      .add(query ,BooleanClause.Occur.SHOULD )
-                      .add(final_query, BooleanClause.Occur.SHOULD ).build();
-            }
-
-          }
-
-          System.out.println(final_query);
-          results = searcher.search(final_query, 1000);
-          hits = results.scoreDocs;
-          numTotalHits = Math.toIntExact(results.totalHits.value);
-          if (numTotalHits > 0) {
-            hits = searcher.search(final_query, numTotalHits).scoreDocs;
-            for (int j = 0; j < numTotalHits; j++) {
-              Document search_doc = searcher.doc(hits[j].doc);
-              String path = search_doc.get("path");
-              if (path != null) {
-                out.println(id + "  " + path);
-              } else {
-                out.println(id + "  " + "No path");
-              }
+          queries.add(() -> {
+            Query final_query = infoNeedQuery(text, tagger, builders.get());
+            StringWriter lines = new StringWriter();
+            PrintWriter result = new PrintWriter(lines);
+            StringBuilder facetLines = new StringBuilder();
+            Snippets.Page page = snippets != null && final_query != null ? snippets.page(final_query, snippetHits) : null;
+
+            if (final_query != null) {
+              results.search(searcher, final_query, maxHits, totalHitsThreshold,
+                      withFacets(withSnippets((hit, path) -> {
+                if (path != null) {
+                  result.println(id + "  " + path);
+                } else {
+                  result.println(id + "  " + "No path");
+                }
+              }, page), facets, topFacets, facetLines));
             }
-          }
-
+            result.flush();
+            return new Answer(withCounts(String.valueOf(final_query), facetLines), lines.toString(), page);
+          });
         }
       }
 
-      reader.close();
-      out.close();
-
     } else
     { //File extension is .txt
 
       BufferedReader in = null;
       in = new BufferedReader(new InputStreamReader(new FileInputStream(infoNeeds), "UTF-8"));
-      QueryParser parser = new QueryParser(field, analyzer);
+      boolean spatialFilter = filters;
+      ThreadLocal<DateFields.Parser> parsers = ThreadLocal.withInitial(() -> {
+        DateFields.Parser parser = new DateFields.Parser(field, analyzers.get());
+        parser.setSpatialFilter(spatialFilter);
+        return parser;
+      });
       int queryNum = 0;
 
       while (true) {
@@ -221,85 +300,331 @@ public class SearchFiles {
           break;
         }
 
-        Query final_query;
-        //line = spatial:<west>,<east>,<south>,<north>
-        if (line.substring(0, 7).equals("spatial")) {
-
-          String spatial, not_spatial = "";
-          int ind = line.indexOf(" ");
-          //Not only spatial
-          if (ind != -1) {
-            spatial = line.substring(0,ind);
-            not_spatial = line.substring(ind+1, line.length());
+        String query_line = line;
+        int query_num = queryNum;
+        queries.add(() -> {
+          Query final_query = queryLineQuery(query_line, parsers.get());
+          StringWriter lines = new StringWriter();
+          PrintWriter result = new PrintWriter(lines);
+          StringBuilder facetLines = new StringBuilder();
+          Snippets.Page page = snippets != null ? snippets.page(final_query, snippetHits) : null;
+
+          TotalHits numTotalHits = results.search(searcher, final_query, maxHits, totalHitsThreshold, withFacets(withSnippets(new PagedHits.Visitor() {
+            @Override
+            public void totalHits(TotalHits numTotalHits) {
+              //System.out.println(numTotalHits + " total matching documents");
+              if (numTotalHits.value > 0) {
+                result.print(PagedHits.format(numTotalHits) + "  ");
+              }
+            }
 
-          } else { //Only spatial
-            spatial = line;
+            @Override
+            public void hit(ScoreDoc hit, String path) {
+              if (path != null) {
+                //System.out.println(query_num + "  " + path);
+                result.print(path.substring(0, 2) + ",");
+              } else {
+                //System.out.println((query_num) + "  " + "No path for this document");
+                result.println((query_num) + "  " + "No path for this document");
+              }
+            }
+          }, page), facets, topFacets, facetLines));
+          if (numTotalHits.value > 0) {
+            result.println();
           }
+          result.flush();
+          return new Answer(facets == null && page == null ? null : withCounts(query_line, facetLines),
+                  lines.toString(), page);
+        });
+      }
+      in.close();
+    }
 
-          String str_values = spatial.substring(8,spatial.length());
-          String[] values = str_values.split(",");
-          double west = Double.parseDouble(values[0]);
-          double south = Double.parseDouble(values[2]);
-          double east = Double.parseDouble(values[1]);
-          double north = Double.parseDouble(values[3]);
-
-          // System.out.println(west + "," + south + "," + east + "," + north);
-
-          //Xmin <= east
-          Query westRangeQuery = DoublePoint.newRangeQuery ("west", Double.NEGATIVE_INFINITY ,east);
-          //Xmax >= west
-          Query eastRangeQuery = DoublePoint.newRangeQuery ("east", west ,Double.POSITIVE_INFINITY);
-          //Ymax >= south
-          Query northRangeQuery = DoublePoint.newRangeQuery ("north", south ,Double.POSITIVE_INFINITY);
-          //Ymin <= north
-          Query southRangeQuery = DoublePoint.newRangeQuery ("south", Double.NEGATIVE_INFINITY ,north);
-
-          BooleanQuery spatial_query = new BooleanQuery.Builder()
-                  .add ( westRangeQuery ,BooleanClause.Occur.MUST )
-                  .add ( southRangeQuery ,BooleanClause.Occur.MUST )
-                  .add ( eastRangeQuery ,BooleanClause.Occur.MUST )
-                  .add ( northRangeQuery ,BooleanClause.Occur.MUST ).build();
-
-          //Not only spatial query
-          if (ind != -1) {
-            Query query = parser.parse(not_spatial);
-            final_query = new BooleanQuery.Builder()
-                    .add(spatial_query ,BooleanClause.Occur.SHOULD )
-                    .add(query, BooleanClause.Occur.SHOULD ).build();
-          } else {
-            final_query = spatial_query;
-          }
-        } else { //No espatial in query
-          final_query = parser.parse(line);
-        }
+    // the answers come back in input order whatever the number of threads
+    for (Answer answer : runAll(queries, threads)) {
+      if (answer.query != null) {
+        System.out.println(answer.query);
+      }
+      if (answer.page != null && answer.page.size() > 0) {
+        System.out.println(answer.page);
+      }
+      out.print(answer.lines);
+    }
+    if (resultCacheMB > 0) {
+      System.out.println(results);
+    }
+    if (filterCacheMB > 0) {
+      System.out.println(filterCache);
+    }
+    if (snippets != null) {
+      System.out.println("Highlighted the top hits of " + Snippets.SNIPPET_TIME.count() + " queries in "
+              + Snippets.SNIPPET_TIME.totalNanos() / 1_000_000 + " ms, apart from their search");
+    }
 
-        TopDocs results = searcher.search(final_query, 1000);
-        ScoreDoc[] hits = results.scoreDocs;
-        int numTotalHits = Math.toIntExact(results.totalHits.value);
-        //System.out.println(numTotalHits + " total matching documents");
-
-        if (numTotalHits > 0) {
-          hits = searcher.search(final_query, numTotalHits).scoreDocs;
-
-          out.print(numTotalHits + "  ");
-
-          for (int i = 0; i < numTotalHits; i++) {
-            Document doc = searcher.doc(hits[i].doc);
-            String path = doc.get("path");
-            if (path != null) {
-              //System.out.println(queryNum + "  " + path);
-              out.print(path.substring(0, 2) + ",");
-            } else {
-              //System.out.println((queryNum) + "  " + "No path for this document");
-              out.println((queryNum) + "  " + "No path for this document");
-            }
+    reader.close();
+    out.close();
+    if (searchPool != null) {
+      searchPool.shutdown();
+    }
+  }
+
+  /** What a query prints to the console (if anything) and to the results file. */
+  private static final class Answer {
+    final String query;
+    final String lines;
+    /** Top hits to highlight, or <code>null</code>. */
+    final Snippets.Page page;
+
+    Answer(String query, String lines, Snippets.Page page) {
+      this.query = query;
+      this.lines = lines;
+      this.page = page;
+    }
+  }
+
+  /**
+   * Adds facet counting to a visitor of hits.
+   *
+   * @param facets Facets of the index, or <code>null</code> not to count them
+   * @param n Number of values of every dimension
+   * @param counts Receives the counts, see {@link FacetFields#count}
+   */
+  private static PagedHits.Visitor withFacets(PagedHits.Visitor visitor, FacetFields facets, int n,
+                                              StringBuilder counts) {
+    if (facets == null) {
+      return visitor;
+    }
+    return new PagedHits.Visitor() {
+      @Override
+      public boolean wantsFacets() {
+        return true;
+      }
+
+      @Override
+      public void facets(FacetsCollector hits) throws IOException {
+        counts.append(facets.count(hits, n));
+      }
+
+      @Override
+      public void totalHits(TotalHits totalHits) throws IOException {
+        visitor.totalHits(totalHits);
+      }
+
+      @Override
+      public void hit(ScoreDoc hit, String path) throws IOException {
+        visitor.hit(hit, path);
+      }
+    };
+  }
+
+  /** Wraps the visitor so that the top hits are also added to the page to highlight, if any. */
+  private static PagedHits.Visitor withSnippets(PagedHits.Visitor visitor, Snippets.Page page) {
+    if (page == null) {
+      return visitor;
+    }
+    return new PagedHits.Visitor() {
+      @Override
+      public void totalHits(TotalHits totalHits) throws IOException {
+        visitor.totalHits(totalHits);
+      }
+
+      @Override
+      public void hit(ScoreDoc hit, String path) throws IOException {
+        page.add(hit, path);
+        visitor.hit(hit, path);
+      }
+    };
+  }
+
+  /** Returns the query followed by its facet counts, if any. */
+  private static String withCounts(String query, CharSequence counts) {
+    return counts.length() == 0 ? query : query + "\n" + counts;
+  }
+
+  /**
+   * Runs the queries on the given number of threads.
+   *
+   * @return the answers, in the order of the queries
+   */
+  private static List<Answer> runAll(List<Callable<Answer>> queries, int threads) throws Exception {
+    List<Callable<Answer>> measured = new ArrayList<>();
+    for (Callable<Answer> query : queries) {
+      measured.add(() -> {
+        Answer answer = measure(query);
+        // highlighting is not part of the latency of the query
+        if (answer.page != null) {
+          answer.page.highlight();
+        }
+        return answer;
+      });
+    }
+    queries = measured;
+    List<Answer> answers = new ArrayList<>();
+    if (threads <= 1) {
+      for (Callable<Answer> query : queries) {
+        answers.add(query.call());
+      }
+      return answers;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      for (Future<Answer> answer : pool.invokeAll(queries)) {
+        try {
+          answers.add(answer.get());
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof Exception) {
+            throw (Exception) e.getCause();
           }
-          out.println();
+          throw e;
         }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return answers;
+  }
+
+  /** Runs a query, recording its latency and whether it failed. */
+  static <T> T measure(Callable<T> query) throws Exception {
+    long t0 = System.nanoTime();
+    try {
+      return query.call();
+    } catch (Exception e) {
+      ERRORS.inc();
+      throw e;
+    } finally {
+      QUERY_TIME.observeSince(t0);
+      QUERIES.inc();
+    }
+  }
+
+  /**
+   * Builds the query of a natural language information need: every noun,
+   * number, adjective, adverb and verb is searched in the fields that suit
+   * its part of speech, see {@link InfoNeedQueryBuilder}.
+   *
+   * @param text The information need
+   * @param tagger Part of speech tagger
+   * @param builder Query builder, which is not thread safe
+   * @return the query, or <code>null</code> if the text has no searchable word
+   */
+  static Query infoNeedQuery(String text, TaggingService tagger, InfoNeedQueryBuilder builder) throws ParseException {
+    long t0 = System.nanoTime();
+    TaggingService.Tagged tagged = tagger.tag(text);
+    TAG_TIME.observeSince(t0);
+    //System.out.println("Tokens: " + Arrays.toString(tagged.tokens));
+    //System.out.println("Tagger: " + Arrays.toString(tagged.tags));
+
+    t0 = System.nanoTime();
+    Query query = builder.build(tagged.tokens, tagged.tags);
+    BUILD_TIME.observeSince(t0);
+    return query;
+  }
+
+  /**
+   * Builds the query of a line of a query file such as consultas.txt: a
+   * query in the classic query parser syntax, optionally preceded by a
+   * bounding box <code>spatial:&lt;west&gt;,&lt;east&gt;,&lt;south&gt;,&lt;north&gt;</code>
+   * that matches the documents whose box intersects it. Dates are searched
+   * as numbers, see {@link DateFields.Parser}. If the parser makes the box a
+   * filter, only the documents in it match; otherwise it is an alternative
+   * to the text.
+   *
+   * @param line The query
+   * @param parser Parser for the textual part, which is not thread safe
+   */
+  static Query queryLineQuery(String line, DateFields.Parser parser) throws ParseException {
+    long t0 = System.nanoTime();
+    try {
+      return parseQueryLine(line, parser);
+    } finally {
+      BUILD_TIME.observeSince(t0);
+    }
+  }
+
+  /** {@link #queryLineQuery} without recording the build time. */
+  static Query parseQueryLine(String line, DateFields.Parser parser) throws ParseException {
+    Query final_query;
+    //line = spatial:<west>,<east>,<south>,<north>
+    if (line.startsWith("spatial")) {
+
+      String spatial, not_spatial = "";
+      int ind = line.indexOf(" ");
+      //Not only spatial
+      if (ind != -1) {
+        spatial = line.substring(0,ind);
+        not_spatial = line.substring(ind+1, line.length());
+
+      } else { //Only spatial
+        spatial = line;
+      }
 
+      String str_values = spatial.substring(8,spatial.length());
+      String[] values = str_values.split(",");
+      double west = Double.parseDouble(values[0]);
+      double south = Double.parseDouble(values[2]);
+      double east = Double.parseDouble(values[1]);
+      double north = Double.parseDouble(values[3]);
+
+      // System.out.println(west + "," + south + "," + east + "," + north);
+
+      Query spatial_query = spatialQuery(west, east, south, north);
+
+      //Not only spatial query
+      if (ind != -1) {
+        Query query = parser.parse(not_spatial);
+        if (parser.getSpatialFilter()) {
+          final_query = new BooleanQuery.Builder()
+                  .add(spatial_query, BooleanClause.Occur.FILTER)
+                  .add(query, BooleanClause.Occur.MUST).build();
+        } else {
+          final_query = new BooleanQuery.Builder()
+                  .add(spatial_query ,BooleanClause.Occur.SHOULD )
+                  .add(query, BooleanClause.Occur.SHOULD ).build();
+        }
+      } else {
+        final_query = spatial_query;
       }
-      reader.close();
-      out.close();
+    } else { //No espatial in query
+      final_query = parser.parse(line);
     }
+    return final_query;
+  }
+
+  /**
+   * Matches the documents whose bounding box intersects the given one, with
+   * a single intersection query on the <code>bbox</code> range field. A box
+   * whose west exceeds its east, or its south its north, is not a valid
+   * range query, and is searched with {@link #spatialRangesQuery}.
+   */
+  static Query spatialQuery(double west, double east, double south, double north) {
+    if (west > east || south > north) {
+      return spatialRangesQuery(west, east, south, north);
+    }
+    Query bbox = DoubleRange.newIntersectsQuery("bbox", new double[] {west, south}, new double[] {east, north});
+    // scores as the four range clauses of spatialRangesQuery did, so that
+    // the ranking of spatial queries combined with text stays the same
+    return new BoostQuery(FilterCache.constraint(bbox), 4f);
+  }
+
+  /**
+   * Same as {@link #spatialQuery}, but intersecting four one-dimensional
+   * range queries over the west, south, east and north points.
+   */
+  static Query spatialRangesQuery(double west, double east, double south, double north) {
+    //Xmin <= east
+    Query westRangeQuery = DoublePoint.newRangeQuery ("west", Double.NEGATIVE_INFINITY ,east);
+    //Xmax >= west
+    Query eastRangeQuery = DoublePoint.newRangeQuery ("east", west ,Double.POSITIVE_INFINITY);
+    //Ymax >= south
+    Query northRangeQuery = DoublePoint.newRangeQuery ("north", south ,Double.POSITIVE_INFINITY);
+    //Ymin <= north
+    Query southRangeQuery = DoublePoint.newRangeQuery ("south", Double.NEGATIVE_INFINITY ,north);
+
+    return new BooleanQuery.Builder()
+            .add ( westRangeQuery ,BooleanClause.Occur.MUST )
+            .add ( southRangeQuery ,BooleanClause.Occur.MUST )
+            .add ( eastRangeQuery ,BooleanClause.Occur.MUST )
+            .add ( northRangeQuery ,BooleanClause.Occur.MUST ).build();
   }
 }
\ No newline at end of file
@@ -0,0 +1,416 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.suggest.Lookup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/** Long-running search daemon.
+ * <p>
+ * Keeps the index, the analyzer and the part of speech model loaded and
+ * answers queries over HTTP on the loopback interface, so no query pays the
+ * startup cost of {@link SearchFiles}. Both query syntaxes are supported,
+ * and so is the completion of a prefix:
+ * <pre>
+ *   GET /search?need=&lt;natural language information need&gt;[&amp;n=&lt;hits&gt;][&amp;exact=false][&amp;snippets=&lt;hits&gt;]
+ *   GET /search?q=&lt;line in the consultas.txt syntax&gt;[&amp;n=&lt;hits&gt;][&amp;exact=false][&amp;snippets=&lt;hits&gt;]
+ *   GET /suggest?prefix=&lt;start of a title or name&gt;[&amp;n=&lt;completions&gt;]
+ * </pre>
+ * The answer is plain text: the total number of hits in the first line,
+ * followed by the path of every returned hit, one per line. With
+ * <code>exact=false</code> hits are only counted up to n, so the search can
+ * skip the documents that cannot make it into the top n, and a larger total
+ * is a lower bound, written <code>&ge;count</code>. With <code>snippets=k</code>
+ * the path of each of the top k hits is followed, on its line and separated
+ * by tabs, by the highlighted passages of its titulo and descripcion, see
+ * {@link Snippets}.
+ * <code>/suggest</code> completes a prefix with up to n, by default 10,
+ * titles, authors and directors, the most recent first, one per line
+ * followed by a tab and its field, see {@link Suggestions}. They are those
+ * built by <code>IndexFiles -suggest</code>, reloaded when it rebuilds them.
+ * <code>GET /metrics</code> returns the query latencies and counts in the
+ * Prometheus text format.
+ * <p>
+ * The hits of recent queries are cached, 32 MB of them unless
+ * <code>-resultCacheMB</code> says otherwise, see {@link ResultCache}. So
+ * are, for all the searchers, the documents of recurring spatial and date
+ * constraints, up to <code>-filterCacheMB</code>, see {@link FilterCache};
+ * required dates are filters, and with <code>-constraints filter</code> so
+ * is a spatial box followed by text, see {@link SearchFiles#queryLineQuery}.
+ * <p>
+ * The index is reopened in the background when it changes, so documents
+ * added by <code>IndexFiles -update</code> become visible without a restart.
+ * A sharded index is searched as a whole, and only the shards that changed
+ * are reopened. An index copied to the heap with <code>-directory ram</code>
+ * is never reopened.
+ * <p>
+ * With <code>-warmup</code> every searcher, the first one and those of the
+ * reopened index, runs the queries of a sample query file before it
+ * answers any request, see {@link Warmer}.
+ */
+public class SearchServer {
+
+  /** Hits returned when the request does not say. */
+  private static final int DEFAULT_HITS = 1000;
+  /** Completions returned when the request does not say. */
+  private static final int DEFAULT_SUGGESTIONS = 10;
+
+  private final ReferenceManager<IndexSearcher> manager;
+  private final Analyzer analyzer;
+  private final TaggingService tagger;
+  private final ResultCache results;
+  private final ThreadLocal<DateFields.Parser> parsers;
+  private final ThreadLocal<InfoNeedQueryBuilder> builders;
+  private final Path indexPath;
+  /** Completions of the index, <code>null</code> if it has none, and when their file was written. */
+  /** Highlighter of the last searcher acquired with snippets, see {@link #snippets}. */
+  private volatile SearcherSnippets snippets;
+  private volatile Suggestions suggestions;
+  private volatile long suggestionsModified;
+
+  private SearchServer(ReferenceManager<IndexSearcher> manager, TaggingService tagger, ResultCache results,
+                       boolean filters, Analyzer analyzer, Path indexPath) throws IOException {
+    this.manager = manager;
+    this.indexPath = indexPath;
+    this.analyzer = analyzer;
+    this.tagger = tagger;
+    this.results = results;
+    // parsers and builders are not thread safe, the analyzer is
+    this.parsers = ThreadLocal.withInitial(() -> {
+      DateFields.Parser parser = new DateFields.Parser(SearchFiles.DEFAULT_FIELD, analyzer);
+      parser.setSpatialFilter(filters);
+      return parser;
+    });
+    this.builders = ThreadLocal.withInitial(() -> new InfoNeedQueryBuilder(analyzer));
+    reloadSuggestions();
+  }
+
+  /** Loads the completions of the index if their file changed since they were last loaded. */
+  private void reloadSuggestions() throws IOException {
+    Path file = indexPath.resolve(Suggestions.FILE_NAME);
+    long modified = Files.exists(file) ? Files.getLastModifiedTime(file).toMillis() : 0;
+    if (modified != suggestionsModified) {
+      suggestions = Suggestions.load(indexPath);
+      suggestionsModified = modified;
+    }
+  }
+
+  /** Starts the search daemon. */
+  public static void main(String[] args) throws Exception {
+    String usage =
+            "Usage:\tSearchServer -index <indexPath> [-port <port>] [-refresh <seconds>] [-threads <n>]"
+            + " [-metrics <file> [-metricsEvery <seconds>]] [-directory fs|mmap|preload|ram]"
+            + " [-warmup <queryFile>] [-resultCacheMB <mb>] [-filterCacheMB <mb>] [-constraints score|filter]";
+    if (args.length > 0 && ("-h".equals(args[0]) || "-help".equals(args[0]))) {
+      System.out.println(usage);
+      System.exit(0);
+    }
+
+    String index = "index";
+    int port = 8080;
+    double refresh = 1.0;
+    int threads = Runtime.getRuntime().availableProcessors();
+    String metrics = null;
+    double metricsEvery = 60;
+    String directory = "fs";
+    String warmup = null;
+    double resultCacheMB = 32;
+    double filterCacheMB = FilterCache.DEFAULT_MB;
+    boolean filters = false;
+
+    for (int i = 0; i < args.length; i++) {
+      if ("-index".equals(args[i])) {
+        index = args[i + 1];
+        i++;
+      } else if ("-port".equals(args[i])) {
+        port = Integer.parseInt(args[i + 1]);
+        i++;
+      } else if ("-refresh".equals(args[i])) {
+        refresh = Double.parseDouble(args[i + 1]);
+        i++;
+      } else if ("-threads".equals(args[i])) {
+        threads = Integer.parseInt(args[i + 1]);
+        i++;
+      } else if ("-metrics".equals(args[i])) {
+        metrics = args[i + 1];
+        i++;
+      } else if ("-metricsEvery".equals(args[i])) {
+        metricsEvery = Double.parseDouble(args[i + 1]);
+        i++;
+      } else if ("-directory".equals(args[i])) {
+        directory = args[i + 1];
+        i++;
+      } else if ("-warmup".equals(args[i])) {
+        warmup = args[i + 1];
+        i++;
+      } else if ("-resultCacheMB".equals(args[i])) {
+        resultCacheMB = Double.parseDouble(args[i + 1]);
+        i++;
+      } else if ("-filterCacheMB".equals(args[i])) {
+        filterCacheMB = Double.parseDouble(args[i + 1]);
+        i++;
+      } else if ("-constraints".equals(args[i])) {
+        filters = "filter".equals(args[i + 1]);
+        i++;
+      }
+    }
+
+    if (metrics != null) {
+      Metrics.export(Paths.get(metrics), metricsEvery);
+    }
+
+    // requests for information needs wait until the model is loaded
+    TaggingService tagger = new TaggingService(new File(SearchFiles.POS_MODEL)).preload();
+    Path indexPath = Paths.get(index);
+    // queries analyze every field as the index did
+    Analyzer analyzer = FieldAnalyzers.read(indexPath).wrap(new SpanishAnalyzer2());
+    Warmer warmer = warmup != null ? Warmer.load(Paths.get(warmup), analyzer, tagger) : null;
+    // shared, so the constraints cached by a searcher serve the reopened ones
+    FilterCache filterCache = new FilterCache((long) (filterCacheMB * 1024 * 1024));
+
+    SearcherFactory factory = new SearcherFactory() {
+      @Override
+      public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(new ClassicSimilarity());
+        filterCache.configure(searcher);
+        // the searcher is only published once warm, also after a refresh
+        if (warmer != null) {
+          warmer.warm(searcher);
+        }
+        return searcher;
+      }
+    };
+    int shards = Shards.count(indexPath);
+    ReferenceManager<IndexSearcher> manager = shards > 0
+            ? new ShardedSearcherManager(indexPath, shards, directory, factory)
+            : new SearcherManager(Directories.open(indexPath, directory), factory);
+    SearchServer server = new SearchServer(manager, tagger, new ResultCache((long) (resultCacheMB * 1024 * 1024)),
+            filters, analyzer, indexPath);
+
+    ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor();
+    long refreshMillis = (long) (refresh * 1000);
+    refresher.scheduleWithFixedDelay(() -> {
+      try {
+        manager.maybeRefresh();
+        server.reloadSuggestions();
+      } catch (IOException | RuntimeException e) {
+        // an exception would cancel every later refresh
+        System.out.println(" caught a " + e.getClass() +
+                "\n with message: " + e.getMessage());
+      }
+    }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+
+    HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    http.createContext("/search", server::handle);
+    http.createContext("/suggest", server::handleSuggest);
+    http.createContext("/metrics", exchange -> respond(exchange, 200, Metrics.prometheus()));
+    http.setExecutor(Executors.newFixedThreadPool(threads));
+    http.start();
+    System.out.println("Serving '" + index + "' on http://localhost:" + port + "/search");
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    int status = 200;
+    String body;
+    try {
+      Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+      body = SearchFiles.measure(() -> answer(params));
+    } catch (ParseException | IllegalArgumentException e) {
+      status = 400;
+      body = e.getMessage() + "\n";
+    } catch (Exception e) {
+      status = 500;
+      body = e + "\n";
+    }
+    respond(exchange, status, body);
+  }
+
+  private void handleSuggest(HttpExchange exchange) throws IOException {
+    int status = 200;
+    String body;
+    try {
+      Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+      body = suggest(params);
+    } catch (IllegalArgumentException e) {
+      status = 400;
+      body = e.getMessage() + "\n";
+    } catch (Exception e) {
+      status = 500;
+      body = e + "\n";
+    }
+    respond(exchange, status, body);
+  }
+
+  private String suggest(Map<String, String> params) throws IOException {
+    String prefix = params.get("prefix");
+    if (prefix == null) {
+      throw new IllegalArgumentException("missing prefix parameter");
+    }
+    Suggestions current = suggestions;
+    if (current == null) {
+      throw new IllegalArgumentException("the index has no suggestions, build them with IndexFiles -suggest");
+    }
+    int n = params.containsKey("n") ? Integer.parseInt(params.get("n")) : DEFAULT_SUGGESTIONS;
+    StringBuilder sb = new StringBuilder();
+    for (Lookup.LookupResult result : current.lookup(prefix, n)) {
+      sb.append(result.key).append('\t').append(Suggestions.field(result)).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private String answer(Map<String, String> params) throws ParseException, IOException {
+    int n = params.containsKey("n") ? Integer.parseInt(params.get("n")) : DEFAULT_HITS;
+    boolean exact = !"false".equals(params.get("exact"));
+    int snippets = params.containsKey("snippets") ? Integer.parseInt(params.get("snippets")) : 0;
+    Query query;
+    if (params.containsKey("need")) {
+      query = SearchFiles.infoNeedQuery(params.get("need"), tagger, builders.get());
+    } else if (params.containsKey("q")) {
+      query = SearchFiles.queryLineQuery(params.get("q").trim(), parsers.get());
+    } else {
+      throw new IllegalArgumentException("missing need or q parameter");
+    }
+    return query == null ? "0\n" : search(query, n, exact ? Integer.MAX_VALUE : n, snippets);
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  /** The highlighter of a searcher. */
+  private static final class SearcherSnippets {
+    final IndexSearcher searcher;
+    final Snippets snippets;
+
+    SearcherSnippets(IndexSearcher searcher, Snippets snippets) {
+      this.searcher = searcher;
+      this.snippets = snippets;
+    }
+  }
+
+  /**
+   * Returns the highlighter of the searcher, built once per searcher the
+   * manager publishes rather than on every request.
+   */
+  private Snippets snippets(IndexSearcher searcher) throws IOException {
+    SearcherSnippets current = snippets;
+    if (current == null || current.searcher != searcher) {
+      // concurrent requests may build it twice, which is harmless
+      current = new SearcherSnippets(searcher, new Snippets(searcher, analyzer));
+      snippets = current;
+    }
+    return current.snippets;
+  }
+
+  /**
+   * Runs the query on the current searcher and lists the paths of the top n
+   * hits, the first <code>snippets</code> of them highlighted.
+   */
+  private String search(Query query, int n, int totalHitsThreshold, int snippets) throws IOException {
+    IndexSearcher searcher = manager.acquire();
+    try {
+      StringBuilder sb = new StringBuilder();
+      Snippets.Page page = snippets > 0 ? snippets(searcher).page(query, snippets) : null;
+      results.search(searcher, query, n, totalHitsThreshold, new PagedHits.Visitor() {
+        @Override
+        public void totalHits(TotalHits totalHits) {
+          sb.append(PagedHits.format(totalHits)).append('\n');
+        }
+
+        @Override
+        public void hit(ScoreDoc hit, String path) {
+          // the top hits are written once highlighted
+          if (page == null || !page.add(hit, path)) {
+            sb.append(path != null ? path : "No path").append('\n');
+          }
+        }
+      });
+      if (sb.length() == 0) {
+        // no hit was asked for
+        sb.append(searcher.count(query)).append('\n');
+      }
+      if (page != null && page.size() > 0) {
+        page.highlight();
+        StringBuilder top = new StringBuilder();
+        for (int i = 0; i < page.size(); i++) {
+          top.append(page.path(i) != null ? page.path(i) : "No path");
+          for (String field : Snippets.FIELDS) {
+            String snippet = page.snippet(field, i);
+            top.append('\t').append(snippet != null ? snippet : "");
+          }
+          top.append('\n');
+        }
+        // right after the total
+        sb.insert(sb.indexOf("\n") + 1, top);
+      }
+      return sb.toString();
+    } finally {
+      manager.release(searcher);
+    }
+  }
+
+  private static Map<String, String> params(String query) throws UnsupportedEncodingException {
+    Map<String, String> params = new HashMap<>();
+    if (query == null) {
+      return params;
+    }
+    for (String pair : query.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq > 0) {
+        params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+      }
+    }
+    return params;
+  }
+}
@@ -0,0 +1,130 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/** {@link SearcherManager} for a sharded index, see {@link Shards}.
+ * <p>
+ * The searcher reads all the shards through one {@link MultiReader}. On
+ * refresh only the shards that changed are reopened, and the new reader
+ * shares the others with the previous one. The number of shards is fixed
+ * when the manager is created.
+ */
+final class ShardedSearcherManager extends ReferenceManager<IndexSearcher> {
+
+  /** A reader over the shards that remembers them, so that they can be reopened. */
+  private static final class ShardsReader extends MultiReader {
+    final DirectoryReader[] shards;
+
+    ShardsReader(DirectoryReader[] shards) throws IOException {
+      // takes its own reference to every shard and releases it on close
+      super(shards, false);
+      this.shards = shards;
+    }
+  }
+
+  private final SearcherFactory factory;
+
+  /**
+   * @param index The index directory
+   * @param shards Number of shards of the index
+   * @param directory How to open the directories of the shards, see {@link Directories}
+   * @param factory Creates the searcher of every new reader
+   * @throws IOException If there is a low-level I/O error
+   */
+  ShardedSearcherManager(Path index, int shards, String directory, SearcherFactory factory) throws IOException {
+    this.factory = factory;
+    DirectoryReader[] readers = new DirectoryReader[shards];
+    List<DirectoryReader> opened = new ArrayList<>();
+    try {
+      for (int i = 0; i < shards; i++) {
+        readers[i] = DirectoryReader.open(Directories.open(Shards.dir(index, i), directory));
+        opened.add(readers[i]);
+      }
+    } catch (IOException e) {
+      release(opened);
+      throw e;
+    }
+    current = newSearcher(readers, opened, null);
+  }
+
+  /**
+   * Creates the searcher over the given shards. The references of the newly
+   * opened ones pass to the new reader.
+   */
+  private IndexSearcher newSearcher(DirectoryReader[] readers, List<DirectoryReader> opened,
+                                    ShardsReader previous) throws IOException {
+    try {
+      return SearcherManager.getSearcher(factory, new ShardsReader(readers), previous);
+    } finally {
+      release(opened);
+    }
+  }
+
+  private static void release(List<DirectoryReader> readers) throws IOException {
+    for (DirectoryReader reader : readers) {
+      reader.decRef();
+    }
+  }
+
+  @Override
+  protected IndexSearcher refreshIfNeeded(IndexSearcher referenceToRefresh) throws IOException {
+    ShardsReader previous = (ShardsReader) referenceToRefresh.getIndexReader();
+    DirectoryReader[] readers = previous.shards.clone();
+    List<DirectoryReader> opened = new ArrayList<>();
+    try {
+      for (int i = 0; i < readers.length; i++) {
+        DirectoryReader reader = DirectoryReader.openIfChanged(readers[i]);
+        if (reader != null) {
+          readers[i] = reader;
+          opened.add(reader);
+        }
+      }
+    } catch (IOException e) {
+      release(opened);
+      throw e;
+    }
+    return opened.isEmpty() ? null : newSearcher(readers, opened, previous);
+  }
+
+  @Override
+  protected void decRef(IndexSearcher reference) throws IOException {
+    reference.getIndexReader().decRef();
+  }
+
+  @Override
+  protected boolean tryIncRef(IndexSearcher reference) {
+    return reference.getIndexReader().tryIncRef();
+  }
+
+  @Override
+  protected int getRefCount(IndexSearcher reference) {
+    return reference.getIndexReader().getRefCount();
+  }
+}
@@ -0,0 +1,172 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/** Writers of the shards of an index, see {@link Shards}.
+ * <p>
+ * Every document goes to the writer of its shard. The writers are thread
+ * safe and independent, so concurrent writer threads fill the shards in
+ * parallel, and the final merges and commits of the shards run in parallel
+ * too. When a single shard is being rebuilt the others are not opened, and
+ * documents that belong to them are skipped.
+ */
+final class ShardedWriter implements Closeable {
+
+  /** Writer of every shard, <code>null</code> for the shards that are not written. */
+  private final IndexWriter[] writers;
+  private final List<Directory> directories = new ArrayList<>();
+  private final List<Path> paths = new ArrayList<>();
+  private final OpenMode mode;
+
+  /**
+   * Opens the writers of the shards of an index.
+   *
+   * @param index The index directory
+   * @param shards Number of shards, 1 for a plain index
+   * @param only The only shard to write, or -1 to write all of them
+   * @param configs Creates the configuration of every writer, which cannot be shared
+   * @throws IOException If there is a low-level I/O error
+   */
+  ShardedWriter(Path index, int shards, int only, Supplier<IndexWriterConfig> configs) throws IOException {
+    this.writers = new IndexWriter[shards];
+    OpenMode mode = null;
+    try {
+      for (int i = 0; i < shards; i++) {
+        if (only < 0 || only == i) {
+          Path path = Shards.path(index, i, shards);
+          Directory dir = FSDirectory.open(path);
+          directories.add(dir);
+          paths.add(path);
+          writers[i] = new IndexWriter(dir, configs.get());
+          mode = writers[i].getConfig().getOpenMode();
+        }
+      }
+    } catch (IOException e) {
+      for (IndexWriter writer : writers) {
+        if (writer != null) {
+          writer.rollback();
+        }
+      }
+      IOUtils.closeWhileHandlingException(directories);
+      throw e;
+    }
+    this.mode = mode;
+  }
+
+  /**
+   * Returns the writer of the shard of the given key, or <code>null</code> if
+   * that shard is not being written.
+   */
+  IndexWriter writerFor(String key) {
+    return writers[Shards.shardOf(key, writers.length)];
+  }
+
+  /** Returns the open mode of the writers, which is the same for all. */
+  OpenMode openMode() {
+    return mode;
+  }
+
+  /** Returns the paths of the shards being written, to read them once closed. */
+  List<Path> paths() {
+    return paths;
+  }
+
+  /** Records the given user data in the next commit of every shard being written. */
+  void setCommitData(Map<String, String> data) {
+    for (IndexWriter writer : writers) {
+      if (writer != null) {
+        writer.setLiveCommitData(data.entrySet());
+      }
+    }
+  }
+
+  /** Merges every shard down to at most the given number of segments, in parallel. */
+  void forceMerge(int maxSegments) throws IOException {
+    forEach(writer -> writer.forceMerge(maxSegments));
+  }
+
+  /** Commits and closes every shard, in parallel, and then their directories. */
+  @Override
+  public void close() throws IOException {
+    try {
+      forEach(IndexWriter::close);
+    } finally {
+      IOUtils.close(directories);
+    }
+  }
+
+  private interface WriterTask {
+    void run(IndexWriter writer) throws IOException;
+  }
+
+  private void forEach(WriterTask task) throws IOException {
+    if (directories.size() == 1) {
+      for (IndexWriter writer : writers) {
+        if (writer != null) {
+          task.run(writer);
+        }
+      }
+      return;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(directories.size());
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (IndexWriter writer : writers) {
+        if (writer != null) {
+          results.add(pool.submit(() -> {
+            task.run(writer);
+            return null;
+          }));
+        }
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for the shards");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("shard failed", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
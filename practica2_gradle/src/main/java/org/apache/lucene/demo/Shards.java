@@ -0,0 +1,123 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Layout of an index split in shards.
+ * <p>
+ * A sharded index is a directory with one subdirectory per shard,
+ * <code>shard0</code>, <code>shard1</code>..., each a complete Lucene index.
+ * A document goes to the shard given by the hash of its key, so it can be
+ * updated or deleted without looking at the other shards and a shard can
+ * be rebuilt on its own. An index without shard subdirectories is a plain,
+ * single index.
+ * <p>
+ * Searches open all the shards under one {@link MultiReader}, so term
+ * statistics, and therefore scores, are global, and the segments of every
+ * shard are searched concurrently when the searcher has an executor.
+ */
+final class Shards {
+
+  private static final String PREFIX = "shard";
+
+  private Shards() {
+  }
+
+  /** Returns the shard of the document with the given key. */
+  static int shardOf(String key, int shards) {
+    // String.hashCode is specified, so the shard of a key never changes
+    return Math.floorMod(key.hashCode(), shards);
+  }
+
+  /** Returns the directory of the given shard, the index itself if it is not sharded. */
+  static Path path(Path index, int shard, int shards) {
+    return shards == 1 ? index : dir(index, shard);
+  }
+
+  /** Returns the subdirectory of the given shard. */
+  static Path dir(Path index, int shard) {
+    return index.resolve(PREFIX + shard);
+  }
+
+  /** Returns the number of shards of the index, 0 if it is a plain index. */
+  static int count(Path index) {
+    int shards = 0;
+    while (Files.isDirectory(dir(index, shards))) {
+      shards++;
+    }
+    return shards;
+  }
+
+  /**
+   * Deletes the files of the plain index at the root of the directory,
+   * which a sharded index replaces, but not the shards or other files.
+   *
+   * @throws IOException If there is a low-level I/O error
+   */
+  static void deletePlainIndex(Path index) throws IOException {
+    if (!Files.isDirectory(index)) {
+      return;
+    }
+    try (Directory dir = FSDirectory.open(index)) {
+      for (String file : dir.listAll()) {
+        if (file.startsWith(IndexFileNames.SEGMENTS) || file.equals(IndexWriter.WRITE_LOCK_NAME)
+            || IndexFileNames.CODEC_FILE_PATTERN.matcher(file).matches()) {
+          dir.deleteFile(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Opens the index, or all its shards as a single reader.
+   *
+   * @param directory How to open the directories, see {@link Directories}
+   * @throws IOException If there is a low-level I/O error
+   */
+  static IndexReader openReader(Path index, String directory) throws IOException {
+    int shards = count(index);
+    if (shards == 0) {
+      return DirectoryReader.open(Directories.open(index, directory));
+    }
+    IndexReader[] readers = new IndexReader[shards];
+    try {
+      for (int i = 0; i < shards; i++) {
+        readers[i] = DirectoryReader.open(Directories.open(dir(index, i), directory));
+      }
+    } catch (IOException e) {
+      for (IndexReader reader : readers) {
+        if (reader != null) {
+          reader.close();
+        }
+      }
+      throw e;
+    }
+    return new MultiReader(readers);
+  }
+}
@@ -0,0 +1,191 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** Highlighted passages of the <code>titulo</code> and <code>descripcion</code> of the hits.
+ * <p>
+ * With <code>IndexFiles -offsets</code> the terms of those fields are
+ * indexed with the character offsets of every occurrence. The
+ * {@link UnifiedHighlighter} then finds the best passages of a hit, the
+ * sentences with most matching terms, from the postings of the query
+ * terms and the stored text, without analyzing the text again. Only the
+ * top hits of a query are highlighted, after the search, and the time is
+ * recorded apart from that of the search.
+ */
+final class Snippets {
+
+  /** Highlighted fields. */
+  static final String[] FIELDS = {"titulo", "descripcion"};
+
+  /** Passages of every field: the title is one sentence, a description gets two. */
+  private static final int[] MAX_PASSAGES = {1, 2};
+
+  private static final Set<String> HIGHLIGHTED = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(FIELDS)));
+
+  static final Metrics.Histogram SNIPPET_TIME =
+          Metrics.histogram("search_snippet_seconds", "Time to highlight the top hits of a query, after its search.");
+
+  private static final FieldType STORED = offsetsType(TextField.TYPE_STORED);
+  private static final FieldType NOT_STORED = offsetsType(TextField.TYPE_NOT_STORED);
+
+  private static FieldType offsetsType(FieldType text) {
+    FieldType type = new FieldType(text);
+    type.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+    type.freeze();
+    return type;
+  }
+
+  /** Returns whether the field is highlighted, so it needs offsets. */
+  static boolean isHighlighted(String field) {
+    return HIGHLIGHTED.contains(field);
+  }
+
+  /** Returns a text field that also indexes the offsets of its terms. */
+  static Field field(String name, String value, Field.Store store) {
+    return new Field(name, value, store == Field.Store.YES ? STORED : NOT_STORED);
+  }
+
+  private final UnifiedHighlighter highlighter;
+
+  /**
+   * Prepares the highlighting of the top hits of the searches. The
+   * instance can be shared by all the searches of the searcher, and
+   * threads.
+   *
+   * @param searcher Searcher of the hits
+   * @param analyzer Analyzer of the queries
+   * @throws IllegalArgumentException If the index was built without offsets, or does not store the fields
+   * @throws IOException If there is a low-level I/O error
+   */
+  Snippets(IndexSearcher searcher, Analyzer analyzer) throws IOException {
+    IndexReader reader = searcher.getIndexReader();
+    FieldInfos infos = FieldInfos.getMergedFieldInfos(reader);
+    for (String field : FIELDS) {
+      FieldInfo info = infos.fieldInfo(field);
+      if (info == null || info.getIndexOptions() != IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) {
+        throw new IllegalArgumentException("the index has no offsets, rebuild it with IndexFiles -offsets to highlight it");
+      }
+      // the passages are cut from the stored text
+      if (!FieldStorage.isStored(reader, field)) {
+        throw new IllegalArgumentException("the index does not store " + field + ", rebuild it with IndexFiles"
+            + " -store all, or with " + String.join(",", FIELDS) + ", to highlight it");
+      }
+    }
+    this.highlighter = new UnifiedHighlighter(searcher, analyzer);
+  }
+
+  /**
+   * Returns a page to collect the hits of the query to highlight.
+   *
+   * @param n Number of hits highlighted
+   */
+  Page page(Query query, int n) {
+    return new Page(query, n);
+  }
+
+  /** The top hits of a query, and their passages once highlighted. */
+  final class Page {
+    private final Query query;
+    private final int[] docs;
+    private final String[] paths;
+    private int size;
+    private Map<String, String[]> passages;
+
+    private Page(Query query, int n) {
+      this.query = query;
+      this.docs = new int[n];
+      this.paths = new String[n];
+    }
+
+    /** Adds the next hit, if the page is not full yet, and returns whether it was added. */
+    boolean add(ScoreDoc hit, String path) {
+      if (size == docs.length) {
+        return false;
+      }
+      docs[size] = hit.doc;
+      paths[size] = path;
+      size++;
+      return true;
+    }
+
+    int size() {
+      return size;
+    }
+
+    String path(int i) {
+      return paths[i];
+    }
+
+    /**
+     * Highlights the hits of the page.
+     *
+     * @throws IOException If there is a low-level I/O error
+     */
+    void highlight() throws IOException {
+      long t0 = System.nanoTime();
+      passages = highlighter.highlightFields(FIELDS, query, Arrays.copyOf(docs, size), MAX_PASSAGES);
+      SNIPPET_TIME.observeSince(t0);
+    }
+
+    /**
+     * Returns the passages of a field of the i-th hit on one line, with the
+     * query terms in <code>&lt;b&gt;</code>, or <code>null</code> if the
+     * hit has no stored value of that field.
+     */
+    String snippet(String field, int i) {
+      String passage = passages.get(field)[i];
+      return passage == null ? null : passage.replaceAll("\\s+", " ").trim();
+    }
+
+    /** Returns the highlighted hits, the path and then every field, one per line. */
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < size; i++) {
+        sb.append(sb.length() == 0 ? "" : "\n").append("  ").append(paths[i]);
+        for (String field : FIELDS) {
+          String snippet = passages == null ? null : snippet(field, i);
+          if (snippet != null) {
+            sb.append("\n    ").append(field).append(": ").append(snippet);
+          }
+        }
+      }
+      return sb.toString();
+    }
+  }
+}
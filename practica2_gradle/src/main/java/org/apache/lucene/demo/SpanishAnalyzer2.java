@@ -41,6 +41,7 @@ import org.apache.lucene.util.IOUtils;
  */
 public final class SpanishAnalyzer2 extends StopwordAnalyzerBase {
     private final CharArraySet stemExclusionSet;
+    private final StemCacheFilter.Cache stemCache;
 
     /** File containing default Spanish stopwords. */
     public final static String DEFAULT_STOPWORD_FILE = "spanish_stop.txt";
@@ -97,8 +98,41 @@ public final class SpanishAnalyzer2 extends StopwordAnalyzerBase {
      * @param stemExclusionSet a set of terms not to be stemmed
      */
     public SpanishAnalyzer2(CharArraySet stopwords, CharArraySet stemExclusionSet) {
+        this(stopwords, stemExclusionSet, 0);
+    }
+
+    /**
+     * Builds an analyzer with the default stop words that caches up to
+     * <code>stemCacheSize</code> stems, see {@link StemCacheFilter}.
+     *
+     * @param stemCacheSize maximum number of cached stems, or 0 not to cache them
+     */
+    public SpanishAnalyzer2(int stemCacheSize) {
+        this(DefaultSetHolder.DEFAULT_STOP_SET, CharArraySet.EMPTY_SET, stemCacheSize);
+    }
+
+    /**
+     * Builds an analyzer with the given stop words and stem exclusion set
+     * that caches up to <code>stemCacheSize</code> stems, shared by all the
+     * token streams of the analyzer. The tokens are the same with or without
+     * the cache.
+     *
+     * @param stopwords a stopword set
+     * @param stemExclusionSet a set of terms not to be stemmed
+     * @param stemCacheSize maximum number of cached stems, or 0 not to cache them
+     */
+    public SpanishAnalyzer2(CharArraySet stopwords, CharArraySet stemExclusionSet, int stemCacheSize) {
         super(stopwords);
         this.stemExclusionSet = CharArraySet.unmodifiableSet(CharArraySet.copy(stemExclusionSet));
+        this.stemCache = stemCacheSize > 0 ? new StemCacheFilter.Cache(stemCacheSize) : null;
+    }
+
+    /**
+     * Returns the stem cache, with its hit and miss counters.
+     * @return the stem cache, or <code>null</code> if stems are not cached.
+     */
+    public StemCacheFilter.Cache getStemCache() {
+        return stemCache;
     }
 
     /**
@@ -111,7 +145,8 @@ public final class SpanishAnalyzer2 extends StopwordAnalyzerBase {
      *         built from an {@link StandardTokenizer} filtered with
      *         {@link LowerCaseFilter}, {@link StopFilter}
      *         , {@link SetKeywordMarkerFilter} if a stem exclusion set is
-     *         provided and {@link SnowballFilter}.
+     *         provided and {@link SnowballFilter}, or {@link StemCacheFilter}
+     *         if stems are cached.
      */
     @Override
     protected TokenStreamComponents createComponents(String fieldName) {
@@ -120,7 +155,10 @@ public final class SpanishAnalyzer2 extends StopwordAnalyzerBase {
         result = new StopFilter(result, stopwords);
         if(!stemExclusionSet.isEmpty())
             result = new SetKeywordMarkerFilter(result, stemExclusionSet);
-        result = new SnowballFilter(result, "Spanish");
+        if (stemCache != null)
+            result = new StemCacheFilter(result, stemCache);
+        else
+            result = new SnowballFilter(result, "Spanish");
         return new TokenStreamComponents(source, result);
     }
 
@@ -0,0 +1,163 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.snowball.SnowballFilter;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+import org.tartarus.snowball.ext.SpanishStemmer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Spanish Snowball stemming that remembers the stems it has computed.
+ * <p>
+ * Produces exactly the same tokens as <code>new SnowballFilter(input, "Spanish")</code>,
+ * but looks every term up in a {@link Cache} first, so the suffix analysis
+ * runs once per distinct word instead of once per occurrence. A hit copies
+ * the stem into the term buffer without allocating. Tokens marked as
+ * keywords are not stemmed, as in {@link SnowballFilter}.
+ */
+public final class StemCacheFilter extends TokenFilter {
+
+  private final SpanishStemmer stemmer = new SpanishStemmer();
+  private final Cache cache;
+  private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+  private final KeywordAttribute keywordAttr = addAttribute(KeywordAttribute.class);
+
+  public StemCacheFilter(TokenStream input, Cache cache) {
+    super(input);
+    this.cache = cache;
+  }
+
+  @Override
+  public boolean incrementToken() throws IOException {
+    if (!input.incrementToken()) {
+      return false;
+    }
+    if (keywordAttr.isKeyword()) {
+      return true;
+    }
+    char[] buffer = termAtt.buffer();
+    int length = termAtt.length();
+    int hash = Cache.hash(buffer, length);
+    char[] stem = cache.get(buffer, length, hash);
+    if (stem == null) {
+      // the stemmer works in place, so keep the original term for the key
+      char[] term = Arrays.copyOf(buffer, length);
+      stemmer.setCurrent(buffer, length);
+      stemmer.stem();
+      stem = Arrays.copyOf(stemmer.getCurrentBuffer(), stemmer.getCurrentBufferLength());
+      cache.put(term, stem, hash);
+    }
+    termAtt.copyBuffer(stem, 0, stem.length);
+    return true;
+  }
+
+  /** Bounded, thread safe map from terms to their stems.
+   * <p>
+   * The cache is a direct-mapped table: every term has a single slot, chosen
+   * by its hash, and a new term evicts whatever was there. Entries are
+   * immutable, so readers need no locking; a lost race only costs a miss.
+   * One cache can be shared by all the token streams of an analyzer.
+   */
+  public static final class Cache {
+
+    private static final class Entry {
+      final char[] term;
+      final char[] stem;
+      final int hash;
+
+      Entry(char[] term, char[] stem, int hash) {
+        this.term = term;
+        this.stem = stem;
+        this.hash = hash;
+      }
+    }
+
+    private final Entry[] entries;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity Maximum number of stems kept, rounded up to a power of two
+     */
+    public Cache(int capacity) {
+      if (capacity <= 0) {
+        throw new IllegalArgumentException("capacity must be positive: " + capacity);
+      }
+      int size = Integer.highestOneBit(Math.min(capacity, 1 << 30));
+      if (size < capacity) {
+        size <<= 1;
+      }
+      this.entries = new Entry[size];
+      this.mask = size - 1;
+    }
+
+    /** Number of terms whose stem was found in the cache. */
+    public long hits() {
+      return hits.sum();
+    }
+
+    /** Number of terms that had to be stemmed. */
+    public long misses() {
+      return misses.sum();
+    }
+
+    /** Number of slots of the cache. */
+    public int capacity() {
+      return entries.length;
+    }
+
+    @Override
+    public String toString() {
+      long h = hits(), m = misses();
+      return "stem cache: " + h + " hits, " + m + " misses"
+              + (h + m > 0 ? String.format(" (%.1f%% hits)", 100.0 * h / (h + m)) : "")
+              + ", " + capacity() + " slots";
+    }
+
+    static int hash(char[] term, int length) {
+      int h = 0;
+      for (int i = 0; i < length; i++) {
+        h = 31 * h + term[i];
+      }
+      // spread the high bits, the table is indexed with the low ones
+      return h ^ (h >>> 16);
+    }
+
+    char[] get(char[] term, int length, int hash) {
+      Entry entry = entries[hash & mask];
+      if (entry != null && entry.hash == hash && entry.term.length == length
+              && Arrays.equals(entry.term, 0, length, term, 0, length)) {
+        hits.increment();
+        return entry.stem;
+      }
+      misses.increment();
+      return null;
+    }
+
+    void put(char[] term, char[] stem, int hash) {
+      entries[hash & mask] = new Entry(term, stem, hash);
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiBits;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Type-ahead completion of titles, authors and directors.
+ * <p>
+ * Every distinct <code>titulo</code>, <code>autor</code> and
+ * <code>director</code> of the index is a suggestion, weighted by the
+ * recency of the newest record that has it: the <code>issued</code> date,
+ * or else the <code>fecha</code>, as <code>yyyymmdd</code>. They are
+ * compiled into the FST of an {@link AnalyzingSuggester}, which completes a
+ * prefix by walking it in memory, in well under a millisecond, instead of
+ * searching the index. Suggestions match from their first word on.
+ * <p>
+ * Suggestions and prefixes are tokenized and lowercased as
+ * {@link SpanishAnalyzer2} does, and their accents are folded, so
+ * <code>rio</code> completes <code>R&iacute;o</code>. There is no stemming or
+ * stop word removal, which would not match a word being typed.
+ * <p>
+ * {@link IndexFiles} with <code>-suggest</code> builds the suggestions from
+ * the stored fields of the index, once it is written, into
+ * {@link #FILE_NAME} of the index directory. Updates without
+ * <code>-suggest</code> leave them as they were.
+ */
+final class Suggestions {
+
+  /** Name of the suggestions file inside the index directory. */
+  static final String FILE_NAME = "suggest.fst";
+
+  /** Fields whose values are suggested. */
+  static final String[] FIELDS = {"titulo", "autor", "director"};
+
+  /** Longer values are not suggested, the automaton of a value is limited to 1000 states. */
+  private static final int MAX_LENGTH = 250;
+
+  /** Date fields of the weight, in order of preference. */
+  static final String[] DATES = {"issued", "fecha"};
+
+  static final Metrics.Histogram SUGGEST_TIME =
+          Metrics.histogram("search_suggest_seconds", "Time to complete a prefix.");
+
+  private final AnalyzingSuggester suggester;
+
+  private Suggestions(AnalyzingSuggester suggester) {
+    this.suggester = suggester;
+  }
+
+  private static AnalyzingSuggester newSuggester() {
+    Analyzer analyzer = new Analyzer() {
+      @Override
+      protected TokenStreamComponents createComponents(String fieldName) {
+        Tokenizer source = new StandardTokenizer();
+        TokenStream result = new LowerCaseFilter(source);
+        result = new ASCIIFoldingFilter(result);
+        return new TokenStreamComponents(source, result);
+      }
+    };
+    // the values are sorted in memory, they are a few MB at most
+    return new AnalyzingSuggester(new ByteBuffersDirectory(), "suggest", analyzer);
+  }
+
+  /** A value to suggest, with the field it comes from and its weight. */
+  private static final class Entry {
+    final String value;
+    final String field;
+    long weight;
+
+    Entry(String value, String field, long weight) {
+      this.value = value;
+      this.field = field;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * Builds the suggestions of all the live documents of the index.
+   *
+   * @throws IllegalArgumentException If the index does not store a suggested or date field it has
+   * @throws IOException If there is a low-level I/O error
+   */
+  static Suggestions build(IndexReader reader) throws IOException {
+    FieldInfos infos = FieldInfos.getMergedFieldInfos(reader);
+    for (String[] fields : new String[][] {FIELDS, DATES}) {
+      for (String field : fields) {
+        if (infos.fieldInfo(field) != null && !FieldStorage.isStored(reader, field)) {
+          throw new IllegalArgumentException("the index does not store " + field + ", rebuild it with IndexFiles"
+              + " -store all, or with " + String.join(",", FIELDS) + "," + String.join(",", DATES) + ", to suggest");
+        }
+      }
+    }
+
+    Set<String> load = new HashSet<>(Arrays.asList(FIELDS));
+    load.addAll(Arrays.asList(DATES));
+    Bits live = MultiBits.getLiveDocs(reader);
+    // the same name is suggested once per field, with its newest date
+    Map<String, Entry> entries = new HashMap<>();
+    for (int i = 0; i < reader.maxDoc(); i++) {
+      if (live != null && !live.get(i)) {
+        continue;
+      }
+      Document doc = reader.document(i, load);
+      long weight = weight(doc);
+      for (String field : FIELDS) {
+        for (String value : doc.getValues(field)) {
+          String text = value.replaceAll("\\s+", " ").trim();
+          if (text.isEmpty() || text.length() > MAX_LENGTH) {
+            continue;
+          }
+          Entry entry = entries.computeIfAbsent(field + '\0' + text, k -> new Entry(text, field, 0));
+          entry.weight = Math.max(entry.weight, weight);
+        }
+      }
+    }
+    AnalyzingSuggester suggester = newSuggester();
+    suggester.build(new EntryIterator(new ArrayList<>(entries.values())));
+    return new Suggestions(suggester);
+  }
+
+  /** Returns the newest date of the record, as <code>yyyymmdd</code>, or 0 if it has none. */
+  private static long weight(Document doc) {
+    for (String field : DATES) {
+      int newest = -1;
+      for (String date : doc.getValues(field)) {
+        newest = Math.max(newest, DateFields.first(date));
+      }
+      if (newest >= 0) {
+        return newest;
+      }
+    }
+    return 0;
+  }
+
+  /** Iterates over the entries, with their field as the payload. */
+  private static final class EntryIterator implements InputIterator {
+    private final Iterator<Entry> entries;
+    private Entry current;
+
+    EntryIterator(List<Entry> entries) {
+      this.entries = entries.iterator();
+    }
+
+    @Override
+    public BytesRef next() {
+      if (!entries.hasNext()) {
+        return null;
+      }
+      current = entries.next();
+      return new BytesRef(current.value);
+    }
+
+    @Override
+    public long weight() {
+      return current.weight;
+    }
+
+    @Override
+    public BytesRef payload() {
+      return new BytesRef(current.field);
+    }
+
+    @Override
+    public boolean hasPayloads() {
+      return true;
+    }
+
+    @Override
+    public Set<BytesRef> contexts() {
+      return null;
+    }
+
+    @Override
+    public boolean hasContexts() {
+      return false;
+    }
+  }
+
+  /**
+   * Loads the suggestions of an index.
+   *
+   * @return the suggestions, or <code>null</code> if the index has none
+   * @throws IOException If there is a low-level I/O error
+   */
+  static Suggestions load(Path index) throws IOException {
+    Path file = index.resolve(FILE_NAME);
+    if (!Files.exists(file)) {
+      return null;
+    }
+    AnalyzingSuggester suggester = newSuggester();
+    try (InputStream in = Files.newInputStream(file)) {
+      suggester.load(in);
+    }
+    return new Suggestions(suggester);
+  }
+
+  /**
+   * Writes the suggestions to the index, replacing the previous ones
+   * atomically, so a server never loads half of them.
+   *
+   * @throws IOException If there is a low-level I/O error
+   */
+  void save(Path index) throws IOException {
+    Path file = index.resolve(FILE_NAME).toAbsolutePath();
+    Path tmp = file.resolveSibling(FILE_NAME + ".tmp");
+    try (OutputStream out = Files.newOutputStream(tmp)) {
+      suggester.store(out);
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Returns the n heaviest completions of the prefix, most recent first.
+   *
+   * @throws IOException If there is a low-level I/O error
+   */
+  List<Lookup.LookupResult> lookup(String prefix, int n) throws IOException {
+    long t0 = System.nanoTime();
+    try {
+      return suggester.lookup(prefix, false, n);
+    } finally {
+      SUGGEST_TIME.observeSince(t0);
+    }
+  }
+
+  /** Returns the field a completion comes from. */
+  static String field(Lookup.LookupResult result) {
+    return result.payload.utf8ToString();
+  }
+
+  @Override
+  public String toString() {
+    return "suggestions: " + suggester.getCount() + " values in "
+            + (suggester.ramBytesUsed() + 1023) / 1024 + " KB";
+  }
+}
@@ -0,0 +1,122 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import opennlp.tools.postag.POSModel;
+import opennlp.tools.postag.POSTaggerME;
+import opennlp.tools.tokenize.WhitespaceTokenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/** Part of speech tagging of information needs, shared by all the threads.
+ * <p>
+ * The model is loaded once, either in the background from {@link #preload}
+ * while the caller opens the index and reads its queries, or on the first
+ * call to {@link #tag}. Every thread gets its own {@link POSTaggerME}, since
+ * they are not thread safe, and the tags of recently seen texts are cached.
+ */
+final class TaggingService {
+
+  /** Default number of texts whose tags are cached. */
+  static final int DEFAULT_CACHE_SIZE = 1000;
+
+  /** The words of a text and their part of speech tags. */
+  static final class Tagged {
+    final String[] tokens;
+    final String[] tags;
+
+    Tagged(String[] tokens, String[] tags) {
+      this.tokens = tokens;
+      this.tags = tags;
+    }
+  }
+
+  private final FutureTask<POSModel> model;
+  private final ThreadLocal<POSTaggerME> taggers;
+  private final Map<String, Tagged> cache;
+
+  TaggingService(File modelFile) {
+    this(modelFile, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * @param modelFile The OpenNLP part of speech model, which is not read yet
+   * @param cacheSize Maximum number of texts whose tags are cached
+   */
+  TaggingService(File modelFile, int cacheSize) {
+    this.model = new FutureTask<>(() -> new POSModel(modelFile));
+    this.taggers = ThreadLocal.withInitial(() -> new POSTaggerME(model()));
+    this.cache = new LinkedHashMap<String, Tagged>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Tagged> eldest) {
+        return size() > cacheSize;
+      }
+    };
+  }
+
+  /** Starts loading the model in a background thread, unless it is already loaded or loading. */
+  TaggingService preload() {
+    Thread loader = new Thread(model, "pos-model-loader");
+    loader.setDaemon(true);
+    loader.start();
+    return this;
+  }
+
+  /**
+   * Splits the text on white space and tags every word.
+   *
+   * @throws UncheckedIOException If the model cannot be read
+   */
+  Tagged tag(String text) {
+    Tagged tagged;
+    synchronized (cache) {
+      tagged = cache.get(text);
+    }
+    if (tagged == null) {
+      String[] tokens = WhitespaceTokenizer.INSTANCE.tokenize(text);
+      tagged = new Tagged(tokens, taggers.get().tag(tokens));
+      synchronized (cache) {
+        cache.put(text, tagged);
+      }
+    }
+    return tagged;
+  }
+
+  /** Returns the model, loading it in this thread if no one has started to. */
+  private POSModel model() {
+    // a FutureTask runs only once, so this is a no-op after preload()
+    model.run();
+    try {
+      return model.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while loading the part of speech model", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw new UncheckedIOException((IOException) e.getCause());
+      }
+      throw new IllegalStateException("cannot load the part of speech model", e.getCause());
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Replays a sample of queries on a searcher before it serves real ones.
+ * <p>
+ * The first queries on a freshly opened index read its files from disk,
+ * fill the caches of the readers and run interpreted code, so they are
+ * much slower than the rest. Running a few representative queries first,
+ * and reading the paths of their hits, takes that cost out of the real
+ * queries. The sample is a query file in either format of
+ * {@link SearchFiles}: information needs if its name ends in
+ * <code>xml</code>, lines in the consultas.txt syntax otherwise.
+ * <p>
+ * The queries are built once, when the file is loaded, and warm-up
+ * searches are not recorded in the query metrics.
+ */
+final class Warmer {
+
+  private final List<Query> queries;
+
+  private Warmer(List<Query> queries) {
+    this.queries = queries;
+  }
+
+  /**
+   * Loads the queries of a query file.
+   *
+   * @param analyzer Analyzer of the queries
+   * @param tagger Tagger for information needs, or <code>null</code> to load one if needed
+   * @throws IOException If the file cannot be read
+   * @throws ParseException If a query line is not valid
+   */
+  static Warmer load(Path file, Analyzer analyzer, TaggingService tagger) throws IOException, ParseException {
+    List<Query> queries = new ArrayList<>();
+    if (file.toString().endsWith("xml")) {
+      if (tagger == null) {
+        tagger = new TaggingService(new File(SearchFiles.POS_MODEL));
+      }
+      InfoNeedQueryBuilder builder = new InfoNeedQueryBuilder(analyzer);
+      for (String need : infoNeeds(file)) {
+        TaggingService.Tagged tagged = tagger.tag(need);
+        Query query = builder.build(tagged.tokens, tagged.tags);
+        if (query != null) {
+          queries.add(query);
+        }
+      }
+    } else {
+      DateFields.Parser parser = new DateFields.Parser(SearchFiles.DEFAULT_FIELD, analyzer);
+      for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+        if (!line.trim().isEmpty()) {
+          queries.add(SearchFiles.parseQueryLine(line.trim(), parser));
+        }
+      }
+    }
+    return new Warmer(queries);
+  }
+
+  private static List<String> infoNeeds(Path file) throws IOException {
+    NodeList needs;
+    try {
+      needs = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file.toFile())
+              .getElementsByTagName("informationNeed");
+    } catch (ParserConfigurationException | SAXException e) {
+      throw new IOException("cannot read the information needs of " + file, e);
+    }
+    List<String> texts = new ArrayList<>();
+    for (int i = 0; i < needs.getLength(); i++) {
+      texts.add(((Element) needs.item(i)).getElementsByTagName("text").item(0).getTextContent());
+    }
+    return texts;
+  }
+
+  /** Returns the number of queries of the sample. */
+  int size() {
+    return queries.size();
+  }
+
+  /**
+   * Runs every query on the searcher and reads the paths of its first page
+   * of hits, as a real query does.
+   *
+   * @throws IOException If there is a low-level I/O error
+   */
+  void warm(IndexSearcher searcher) throws IOException {
+    for (Query query : queries) {
+      ScoreDoc[] hits = searcher.search(query, PagedHits.PAGE_SIZE).scoreDocs;
+      PagedHits.paths(searcher.getIndexReader(), hits);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChangeManifestTest {
+
+  @TempDir
+  Path dir;
+
+  private File write(String name, String contents) throws IOException {
+    return Files.write(dir.resolve(name), contents.getBytes(StandardCharsets.UTF_8)).toFile();
+  }
+
+  /** Checks a file as IndexFiles does, returning whether it was indexed. */
+  private static boolean index(ChangeManifest manifest, File file) throws IOException {
+    ChangeManifest.Change change = manifest.check(file.getName(), file);
+    if (change == null || !change.changed(Files.readAllBytes(file.toPath()))) {
+      return false;
+    }
+    change.indexed();
+    return true;
+  }
+
+  private static String summary(ChangeManifest manifest) {
+    PrintStream out = System.out;
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(bytes, true));
+    try {
+      manifest.printSummary();
+    } finally {
+      System.setOut(out);
+    }
+    return bytes.toString().trim();
+  }
+
+  private ChangeManifest firstRun(File... files) throws IOException {
+    ChangeManifest manifest = ChangeManifest.empty();
+    for (File file : files) {
+      assertTrue(index(manifest, file));
+    }
+    manifest.save(dir.resolve(ChangeManifest.FILE_NAME));
+    ChangeManifest previous = ChangeManifest.load(dir.resolve(ChangeManifest.FILE_NAME));
+    assertNotNull(previous);
+    return previous;
+  }
+
+  @Test
+  void missingManifest() throws IOException {
+    assertNull(ChangeManifest.load(dir.resolve(ChangeManifest.FILE_NAME)));
+  }
+
+  @Test
+  void addedChangedAndRemoved() throws IOException {
+    File kept = write("kept.xml", "<a/>");
+    File edited = write("edited.xml", "<b/>");
+    File deleted = write("deleted.xml", "<c/>");
+    ChangeManifest manifest = firstRun(kept, edited, deleted);
+
+    write("edited.xml", "<b>changed</b>");
+    Files.delete(deleted.toPath());
+    File added = write("added.xml", "<d/>");
+
+    assertFalse(index(manifest, kept));
+    assertTrue(index(manifest, edited));
+    assertTrue(index(manifest, added));
+    assertEquals(Collections.singletonList("deleted.xml"), manifest.removed());
+    assertEquals("1 added, 1 changed, 1 unchanged, 1 removed, 0 failed", summary(manifest));
+  }
+
+  @Test
+  void touchedButNotModified() throws IOException {
+    File file = write("touched.xml", "<a/>");
+    ChangeManifest manifest = firstRun(file);
+
+    assertTrue(file.setLastModified(file.lastModified() + 60_000));
+    ChangeManifest.Change change = manifest.check(file.getName(), file);
+    assertNotNull(change);
+    assertFalse(change.changed(Files.readAllBytes(file.toPath())));
+    assertEquals("0 added, 0 changed, 1 unchanged, 0 removed, 0 failed", summary(manifest));
+  }
+
+  @Test
+  void failedFileKeepsItsEntry() throws IOException {
+    File file = write("broken.xml", "<a/>");
+    ChangeManifest manifest = firstRun(file);
+
+    write("broken.xml", "<a>");
+    ChangeManifest.Change change = manifest.check(file.getName(), file);
+    assertNotNull(change);
+    assertTrue(change.changed(Files.readAllBytes(file.toPath())));
+    change.failed();
+    assertTrue(manifest.removed().isEmpty());
+    assertEquals("0 added, 0 changed, 0 unchanged, 0 removed, 1 failed", summary(manifest));
+
+    // the next run retries it
+    manifest.save(dir.resolve(ChangeManifest.FILE_NAME));
+    manifest = ChangeManifest.load(dir.resolve(ChangeManifest.FILE_NAME));
+    assertNotNull(manifest.check(file.getName(), file));
+  }
+}
@@ -0,0 +1,91 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DumpReaderTest {
+
+  @TempDir
+  Path dir;
+
+  private File dump(String contents) throws IOException {
+    return Files.write(dir.resolve("dump.xml"), contents.getBytes(StandardCharsets.UTF_8)).toFile();
+  }
+
+  private static List<String> records(File dump) throws IOException {
+    List<String> records = new ArrayList<>();
+    try (DumpReader reader = new DumpReader(dump)) {
+      byte[] record;
+      while ((record = reader.next()) != null) {
+        records.add(new String(record, StandardCharsets.UTF_8));
+      }
+    }
+    return records;
+  }
+
+  @Test
+  void concatenatedResponses() throws IOException {
+    String first = "<record><header><identifier>oai:1</identifier></header></record>";
+    String second = "<record>\n<header status=\"deleted\"/></record>";
+    String third = "<record xmlns:dc=\"http://purl.org/dc/elements/1.1/\"><dc:title>Año</dc:title></record>";
+    File dump = dump("<?xml version=\"1.0\" encoding=\"UTF-8\"?><OAI-PMH><ListRecords>"
+            + first + "\n" + second + "<resumptionToken>1</resumptionToken></ListRecords></OAI-PMH>\n"
+            + "<?xml version=\"1.0\" encoding=\"UTF-8\"?><OAI-PMH><recordCount>1</recordCount><ListRecords>"
+            + third + "</ListRecords></OAI-PMH>\n");
+    assertEquals(Arrays.asList(first, second, third), records(dump));
+  }
+
+  @Test
+  void recordLargerThanABlock() throws IOException {
+    StringBuilder record = new StringBuilder("<record><description>");
+    while (record.length() < 5 * 1024 * 1024) {
+      record.append("texto ");
+    }
+    record.append("</description></record>");
+    File dump = dump("<ListRecords>" + record + "<record>x</record></ListRecords>");
+    assertEquals(Arrays.asList(record.toString(), "<record>x</record>"), records(dump));
+  }
+
+  @Test
+  void emptyDump() throws IOException {
+    assertEquals(new ArrayList<String>(), records(dump("<OAI-PMH><ListRecords/></OAI-PMH>")));
+  }
+
+  @Test
+  void truncatedRecord() throws IOException {
+    File dump = dump("<ListRecords><record>x</record><record><header>");
+    try (DumpReader reader = new DumpReader(dump)) {
+      assertEquals("<record>x</record>", new String(reader.next(), StandardCharsets.UTF_8));
+      assertThrows(IOException.class, reader::next);
+    }
+  }
+}
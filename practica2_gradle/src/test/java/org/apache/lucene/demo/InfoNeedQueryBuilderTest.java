@@ -0,0 +1,166 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/** Checks that the flat query of a need scores as the nested query built before. */
+class InfoNeedQueryBuilderTest {
+
+  private static final String[] FIELDS = {"titulo", "tipo", "descripcion", "autor", "departamento", "director", "fecha"};
+  private static final String[][] DOCS = {
+    {"Música clásica en Aragón", "TFG", "Estudio de la música clásica y sus músicos", "Pérez, Ana", "Música", "López, Juan", "2010"},
+    {"Historia de la música", "TFM", "La música popular desde 2010", "García, Luis", "Historia", "Pérez, Ana", "2015"},
+    {"Energía solar", "TFG", "Estudiar la energía de los paneles solares", "Sanz, Eva", "Física", "Gil, Pedro", "2010"},
+    {"Canciones populares", "TFG", "Canción y música tradicional, estudiada en clase", "Gil, Pedro", "Música", "Sanz, Eva", "2012"},
+  };
+
+  private static Analyzer analyzer;
+  private static Directory dir;
+  private static DirectoryReader reader;
+
+  @BeforeAll
+  static void index() throws IOException {
+    analyzer = new SpanishAnalyzer2();
+    dir = new ByteBuffersDirectory();
+    try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(analyzer))) {
+      for (String[] values : DOCS) {
+        Document doc = new Document();
+        for (int i = 0; i < FIELDS.length; i++) {
+          doc.add(new TextField(FIELDS[i], values[i], Field.Store.NO));
+        }
+        writer.addDocument(doc);
+      }
+    }
+    reader = DirectoryReader.open(dir);
+  }
+
+  @AfterAll
+  static void close() throws IOException {
+    reader.close();
+    dir.close();
+    analyzer.close();
+  }
+
+  /** The query as SearchFiles built it, nesting the query so far in each new one. */
+  private static Query nestedQuery(String[] words, String[] tags) throws ParseException {
+    String[] fields_N = {"titulo", "tipo", "descripcion", "autor", "departamento", "director"};
+    String[] fields_ARV = {"titulo", "descripcion"};
+    String[] fields_Z = {"titulo", "fecha", "descripcion"};
+    Query final_query = null;
+    for (int i = 0; i < words.length; i++) {
+      char type = tags[i].charAt(0);
+      String[] fields;
+      if (type == 'N') {
+        fields = fields_N;
+      } else if (type == 'Z') {
+        fields = fields_Z;
+      } else if (type == 'A' || type == 'R' || type == 'V') {
+        fields = fields_ARV;
+      } else {
+        continue;
+      }
+      BooleanClause.Occur[] flags = new BooleanClause.Occur[fields.length];
+      Arrays.fill(flags, BooleanClause.Occur.SHOULD);
+      String word = words[i].replaceAll("[-+.^:,()*]", "");
+      Query query = MultiFieldQueryParser.parse(word, fields, flags, analyzer);
+      if (final_query == null) final_query = query;
+      else final_query = new BooleanQuery.Builder()
+              .add(query, BooleanClause.Occur.SHOULD)
+              .add(final_query, BooleanClause.Occur.SHOULD).build();
+    }
+    return final_query;
+  }
+
+  private static Map<Integer, Float> scores(Similarity similarity, Query query) throws IOException {
+    IndexSearcher searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(similarity);
+    Map<Integer, Float> scores = new HashMap<>();
+    for (ScoreDoc hit : searcher.search(query, DOCS.length).scoreDocs) {
+      scores.put(hit.doc, hit.score);
+    }
+    return scores;
+  }
+
+  private static void assertSameScores(String[] words, String[] tags) throws Exception {
+    Query flat = new InfoNeedQueryBuilder(analyzer).build(words, tags);
+    Query nested = nestedQuery(words, tags);
+    assertNotNull(flat);
+    for (Similarity similarity : new Similarity[] {new ClassicSimilarity(), new BM25Similarity()}) {
+      Map<Integer, Float> expected = scores(similarity, nested);
+      Map<Integer, Float> actual = scores(similarity, flat);
+      assertFalse(expected.isEmpty());
+      assertEquals(expected.keySet(), actual.keySet(), similarity.toString());
+      for (Map.Entry<Integer, Float> hit : expected.entrySet()) {
+        // the sums only differ in the order of the additions
+        assertEquals(hit.getValue(), actual.get(hit.getKey()), 1e-5f * hit.getValue(), similarity + ", doc " + hit.getKey());
+      }
+    }
+  }
+
+  @Test
+  void distinctWords() throws Exception {
+    assertSameScores(new String[] {"energía", "solar", "2010"}, new String[] {"NCFS000", "AQ0CS00", "Z"});
+  }
+
+  @Test
+  void repeatedWordsAndStems() throws Exception {
+    // música twice, and músicas with the same stem, under the same tag
+    assertSameScores(
+            new String[] {"Quiero", "trabajos", "de", "música", "clásica", "o", "música", "y", "músicas", "populares", "estudiar"},
+            new String[] {"VMIP1S0", "NCMP000", "SPS00", "NCFS000", "AQ0FS00", "CC", "NCFS000", "CC", "NCFP000", "AQ0CP00", "VMN0000"});
+  }
+
+  @Test
+  void stopWordsAndIgnoredTags() throws Exception {
+    assertSameScores(new String[] {"la", "historia", "de", "la", "música"},
+            new String[] {"NCFS000", "NCFS000", "SPS00", "DA0FS0", "NCFS000"});
+    assertNull(new InfoNeedQueryBuilder(analyzer).build(new String[] {"de", "la"}, new String[] {"SPS00", "NCFS000"}));
+  }
+}
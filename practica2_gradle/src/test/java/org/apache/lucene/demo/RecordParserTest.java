@@ -0,0 +1,122 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Checks that the <code>bbox</code> range field matches as the four points did. */
+class RecordParserTest {
+
+  private static final double[] LONGITUDES = {-180, -175, -170, -10, 0, 5, 10, 170, 175, 180};
+  private static final double[] LATITUDES = {-90, -10, 0, 5, 10, 90};
+
+  private Directory dir;
+  private DirectoryReader reader;
+  private IndexSearcher searcher;
+
+  @BeforeEach
+  void index() throws Exception {
+    dir = new ByteBuffersDirectory();
+    RecordParser parser = new RecordParser(FieldStorage.ALL, false);
+    try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new SpanishAnalyzer2()))) {
+      // an ordinary box
+      writer.addDocument(parse(parser, "0 0", "10 10"));
+      // a box crossing the antimeridian, from 170 east to 170 west
+      writer.addDocument(parse(parser, "170 -10", "-170 10"));
+      // a box whose south exceeds its north
+      writer.addDocument(parse(parser, "-10 5", "0 -5"));
+    }
+    reader = DirectoryReader.open(dir);
+    searcher = new IndexSearcher(reader);
+  }
+
+  @AfterEach
+  void close() throws IOException {
+    reader.close();
+    dir.close();
+  }
+
+  private static Document parse(RecordParser parser, String lower, String upper) throws Exception {
+    String record = "<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\""
+            + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:ows=\"http://www.opengis.net/ows\">"
+            + "<dc:title>Mapa</dc:title>"
+            + "<ows:BoundingBox><ows:LowerCorner>" + lower + "</ows:LowerCorner>"
+            + "<ows:UpperCorner>" + upper + "</ows:UpperCorner></ows:BoundingBox>"
+            + "</oai_dc:dc>";
+    Document doc = new Document();
+    parser.parse(new ByteArrayInputStream(record.getBytes(StandardCharsets.UTF_8)), doc);
+    return doc;
+  }
+
+  @Test
+  void everyBoxIsIndexed() throws IOException {
+    assertEquals(3, searcher.count(new MatchAllDocsQuery()));
+    assertEquals(3, searcher.count(SearchFiles.spatialQuery(-180, 180, -90, 90)));
+  }
+
+  @Test
+  void boxCrossingTheAntimeridian() throws IOException {
+    // between 8 and 6 south only the crossing box lies, and as four points
+    // it is matched by the query boxes that reach both 170 west and 170 east
+    assertEquals(1, searcher.count(SearchFiles.spatialQuery(-175, 175, -8, -6)));
+    assertEquals(0, searcher.count(SearchFiles.spatialQuery(-165, 175, -8, -6)));
+    assertEquals(0, searcher.count(SearchFiles.spatialQuery(171, 180, -8, -6)));
+    assertSameMatches();
+  }
+
+  @Test
+  void invertedQueryBox() throws IOException {
+    // must not throw, and must match as the four ranges do
+    assertEquals(searcher.count(SearchFiles.spatialRangesQuery(175, -175, -5, 5)),
+            searcher.count(SearchFiles.spatialQuery(175, -175, -5, 5)));
+    assertEquals(searcher.count(SearchFiles.spatialRangesQuery(0, 10, 5, -5)),
+            searcher.count(SearchFiles.spatialQuery(0, 10, 5, -5)));
+    assertSameMatches();
+  }
+
+  /** Compares both spatial queries over a grid of query boxes, inverted ones included. */
+  private void assertSameMatches() throws IOException {
+    for (double west : LONGITUDES) {
+      for (double east : LONGITUDES) {
+        for (double south : LATITUDES) {
+          for (double north : LATITUDES) {
+            assertEquals(searcher.count(SearchFiles.spatialRangesQuery(west, east, south, north)),
+                    searcher.count(SearchFiles.spatialQuery(west, east, south, north)),
+                    "west " + west + ", east " + east + ", south " + south + ", north " + north);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package org.apache.lucene.demo;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.miscellaneous.SetKeywordMarkerFilter;
+import org.apache.lucene.analysis.snowball.SnowballFilter;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StemCacheFilterTest {
+
+  private static final String TEXT = "Los estudiantes estudiaron la evolución de las bibliotecas "
+          + "universitarias y las bibliotecas públicas; estudiando sus colecciones, "
+          + "el estudiante comprobó que la colección crecía y crecerá. "
+          + "Las canciones, la canción y los cantantes cantaban canciones";
+
+  private static List<String> tokens(String text, Function<TokenStream, TokenStream> filter) throws IOException {
+    WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    tokenizer.setReader(new StringReader(text));
+    return tokens(filter.apply(new LowerCaseFilter(tokenizer)));
+  }
+
+  private static List<String> tokens(TokenStream stream) throws IOException {
+    List<String> tokens = new ArrayList<>();
+    try (TokenStream ts = stream) {
+      CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+      ts.reset();
+      while (ts.incrementToken()) {
+        tokens.add(term.toString());
+      }
+      ts.end();
+    }
+    return tokens;
+  }
+
+  @Test
+  void sameStemsAsSnowball() throws IOException {
+    // a tiny cache, so that terms evict each other
+    for (int capacity : new int[] {1, 4, 1024}) {
+      StemCacheFilter.Cache cache = new StemCacheFilter.Cache(capacity);
+      List<String> expected = tokens(TEXT, ts -> new SnowballFilter(ts, "Spanish"));
+      // twice, the second time mostly from the cache
+      assertEquals(expected, tokens(TEXT, ts -> new StemCacheFilter(ts, cache)));
+      assertEquals(expected, tokens(TEXT, ts -> new StemCacheFilter(ts, cache)));
+      if (capacity == 1024) {
+        assertTrue(cache.hits() > cache.misses(), cache.toString());
+      }
+    }
+  }
+
+  @Test
+  void keywordsAreNotStemmed() throws IOException {
+    CharArraySet keywords = new CharArraySet(Arrays.asList("bibliotecas", "canciones"), false);
+    StemCacheFilter.Cache cache = new StemCacheFilter.Cache(64);
+    List<String> expected = tokens(TEXT, ts -> new SnowballFilter(new SetKeywordMarkerFilter(ts, keywords), "Spanish"));
+    assertTrue(expected.contains("bibliotecas"));
+    assertEquals(expected, tokens(TEXT, ts -> new StemCacheFilter(new SetKeywordMarkerFilter(ts, keywords), cache)));
+  }
+
+  @Test
+  void analyzerWithStemCache() throws IOException {
+    try (Analyzer plain = new SpanishAnalyzer2(); Analyzer cached = new SpanishAnalyzer2(16)) {
+      for (int i = 0; i < 2; i++) {
+        assertEquals(tokens(plain.tokenStream("descripcion", TEXT)), tokens(cached.tokenStream("descripcion", TEXT)));
+      }
+    }
+  }
+}